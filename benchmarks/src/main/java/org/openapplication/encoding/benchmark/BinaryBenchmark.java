@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.benchmark;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.encoding.Binary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BinaryBenchmark {
+
+	private static final Base64.Encoder JDK_ENCODER = Base64.getUrlEncoder()
+			.withoutPadding();
+
+	private static final Base64.Decoder JDK_DECODER = Base64.getUrlDecoder();
+
+	@Param({ "16", "256", "4096", "65536" })
+	public int size;
+
+	private byte[] bytes;
+
+	private String string;
+
+	@Setup
+	public void setUp() {
+		bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		string = Binary.asString(bytes);
+	}
+
+	@Benchmark
+	public char[] asCharArray() {
+		return Binary.asCharArray(bytes);
+	}
+
+	@Benchmark
+	public String asString() {
+		return Binary.asString(bytes);
+	}
+
+	@Benchmark
+	public byte[] asByteArray() {
+		return Binary.asByteArray(string);
+	}
+
+	@Benchmark
+	public boolean isBinary() {
+		return Binary.isBinary(string);
+	}
+
+	@Benchmark
+	public byte[] tryAsByteArray() {
+		return Binary.tryAsByteArray(string);
+	}
+
+	@Benchmark
+	public byte[] jdkEncode() {
+		return JDK_ENCODER.encode(bytes);
+	}
+
+	@Benchmark
+	public String jdkEncodeToString() {
+		return JDK_ENCODER.encodeToString(bytes);
+	}
+
+	@Benchmark
+	public byte[] jdkDecode() {
+		return JDK_DECODER.decode(string);
+	}
+
+}
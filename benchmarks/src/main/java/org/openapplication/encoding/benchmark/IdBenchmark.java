@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.encoding.Id;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdBenchmark {
+
+	// Standard variant (21 digits) and a non-standard variant (22 digits)
+	private static final UUID STANDARD = UUID
+			.fromString("03d73148-e422-4c57-a25b-bd4be247ef33");
+
+	private static final UUID NON_STANDARD = UUID
+			.fromString("03d73148-e422-4c57-e25b-bd4be247ef33");
+
+	@Param({ "21", "22", "36" })
+	public int length;
+
+	private UUID uuid;
+
+	private String string;
+
+	private String jdkString;
+
+	private final long[] bits = new long[2];
+
+	@Setup
+	public void setUp() {
+		uuid = length == 22 ? NON_STANDARD : STANDARD;
+		jdkString = uuid.toString();
+		string = length == 36 ? jdkString : Id.asString(uuid);
+	}
+
+	@Benchmark
+	public char[] asCharArray() {
+		return Id.asCharArray(uuid);
+	}
+
+	@Benchmark
+	public String jdkToString() {
+		return uuid.toString();
+	}
+
+	@Benchmark
+	public UUID asUuid() {
+		return Id.asUuid(string);
+	}
+
+	@Benchmark
+	public long[] tryParse() {
+		Id.tryParse(string, bits, 0);
+		return bits;
+	}
+
+	@Benchmark
+	public UUID jdkFromString() {
+		return UUID.fromString(jdkString);
+	}
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.encoding.Id;
+import org.openapplication.encoding.IdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Run with -t to see contention; the generator is shared by all threads
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+
+	private final IdGenerator generator = new IdGenerator();
+
+	@State(Scope.Thread)
+	public static class Batch {
+
+		final long[] ids = new long[2 * 64];
+
+		final ByteBuffer ascii = ByteBuffer.allocateDirect(64 * 21);
+
+	}
+
+	@Benchmark
+	public Id next() {
+		return generator.next();
+	}
+
+	@Benchmark
+	public long[] nextBatch(Batch batch) {
+		generator.next(batch.ids, 0, 64);
+		return batch.ids;
+	}
+
+	@Benchmark
+	public ByteBuffer nextAsciiBuffer(Batch batch) {
+		batch.ascii.clear();
+		generator.nextAsciiBuffer(64, batch.ascii);
+		return batch.ascii;
+	}
+
+	@Benchmark
+	public UUID jdkRandomUuid() {
+		return UUID.randomUUID();
+	}
+
+}
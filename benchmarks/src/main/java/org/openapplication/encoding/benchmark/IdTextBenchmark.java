@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.encoding.Id;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdTextBenchmark {
+
+	private static final UUID NS_URL = UUID
+			.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8");
+
+	@Param({ "ascii", "non-ascii" })
+	public String text;
+
+	private String decoded;
+
+	private String encoded;
+
+	private Id.Name name;
+
+	private byte[] ascii;
+
+	private ByteBuffer utf8;
+
+	@Setup
+	public void setUp() throws UnsupportedEncodingException {
+		decoded = "ascii".equals(text) ? "/path/to/some-resource_name.html?q=1"
+				: "/päth/tö/sömé-résöürcé_ñämé.html?q=你好";
+		encoded = URLEncoder.encode(decoded, "UTF-8");
+		ascii = new byte[Id.asciiLength(decoded)];
+		utf8 = ByteBuffer.allocate(encoded.length() * 3);
+		final byte[] bytes = decoded.getBytes(StandardCharsets.UTF_8);
+		name = new Id.Name() {
+			@Override
+			public void update(MessageDigest digest) {
+				digest.update(bytes);
+			}
+		};
+	}
+
+	@Benchmark
+	public UUID asUuidName() {
+		return Id.asUuid(NS_URL, name);
+	}
+
+	@Benchmark
+	public UUID jdkNameUuidFromBytes() {
+		// Version 3 (MD5) is the closest the JDK offers to version 5 (SHA-1)
+		return UUID.nameUUIDFromBytes(decoded.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public CharSequence encode() {
+		return Id.encode(decoded);
+	}
+
+	@Benchmark
+	public byte[] encodeAscii() {
+		Id.encodeAscii(decoded, ascii, 0);
+		return ascii;
+	}
+
+	@Benchmark
+	public String jdkEncode() throws UnsupportedEncodingException {
+		return URLEncoder.encode(decoded, "UTF-8");
+	}
+
+	@Benchmark
+	public String decode() {
+		return Id.decode(encoded);
+	}
+
+	@Benchmark
+	public ByteBuffer decodeUtf8() {
+		utf8.clear();
+		Id.decodeUtf8(encoded, utf8);
+		return utf8;
+	}
+
+	@Benchmark
+	public String jdkDecode() throws UnsupportedEncodingException {
+		return URLDecoder.decode(encoded, "UTF-8");
+	}
+
+}
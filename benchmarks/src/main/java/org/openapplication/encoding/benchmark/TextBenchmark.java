@@ -0,0 +1,97 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openapplication.encoding.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextBenchmark {
+
+	@Param({ "16", "256", "4096", "65536" })
+	public int size;
+
+	@Param({ "ascii", "non-ascii" })
+	public String text;
+
+	private String string;
+
+	private byte[] bytes;
+
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setUp() {
+		final String alphabet = "ascii".equals(text) ? "abcdefghij klmnopqrstuvwxyz"
+				: "abcdefghij klmnopqrstuvwxyzåäö你好";
+		final Random random = new Random(size);
+		final StringBuilder builder = new StringBuilder(size);
+		for (int i = 0; i < size; i++)
+			builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		string = builder.toString();
+		bytes = string.getBytes(StandardCharsets.UTF_8);
+		buffer = ByteBuffer.allocateDirect(4 * size);
+	}
+
+	@Benchmark
+	public ByteBuffer asByteBuffer() {
+		return Text.asByteBuffer(string);
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		buffer.clear();
+		Text.encode(CharBuffer.wrap(string), buffer, true);
+		return buffer;
+	}
+
+	@Benchmark
+	public byte[] jdkGetBytes() {
+		return string.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public CharBuffer asCharBuffer() {
+		return Text.asCharBuffer(ByteBuffer.wrap(bytes));
+	}
+
+	@Benchmark
+	public String jdkNewString() {
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -15,30 +15,62 @@
  */
 package org.openapplication.encoding;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
-public abstract class Binary {
+public abstract class Binary implements Comparable<Binary> {
 
-	private static final Pattern REGEX_BASE64 = Pattern
-			.compile("[A-Za-z0-9\\-_]*");
+	// The isBinary methods check in one pass, by table lookup, that the
+	// input is unpadded base64url whose padding bits are zero, which is
+	// exactly what the decode methods accept
 
 	public static boolean isBinary(CharSequence binary) {
-		if (REGEX_BASE64.matcher(binary).matches())
-			switch (binary.length() % 4) {
-			case 0:
-				return true;
-			case 1:
+		final int length = binary.length();
+		if (length % 4 == 1)
+			return false;
+		final byte[] values = BASE64_VALUES;
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = binary.charAt(i);
+			if (c > 0xFF || (value = values[c]) < 0)
 				return false;
-			case 2:
-				return (asByte(binary.charAt(binary.length() - 1)) & 0xF) == 0;
-			case 3:
-				return (asByte(binary.charAt(binary.length() - 1)) & 0x3) == 0;
-			}
-		return false;
+		}
+		return (value & PADDING[length % 4]) == 0;
+	}
+
+	public static boolean isBinary(char[] binary, int offset, int length) {
+		checkBounds(binary.length, offset, length);
+		if (length % 4 == 1)
+			return false;
+		final byte[] values = BASE64_VALUES;
+		int value = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			final char c = binary[i];
+			if (c > 0xFF || (value = values[c]) < 0)
+				return false;
+		}
+		return (value & PADDING[length % 4]) == 0;
+	}
+
+	// Checks the remaining US-ASCII bytes of the buffer
+	public static boolean isBinaryAscii(ByteBuffer binary) {
+		final int length = binary.remaining();
+		if (length % 4 == 1)
+			return false;
+		final byte[] values = BASE64_VALUES;
+		int value = 0;
+		for (int i = binary.position(), end = binary.limit(); i < end; i++)
+			if ((value = values[binary.get(i) & 0xFF]) < 0)
+				return false;
+		return (value & PADDING[length % 4]) == 0;
 	}
 
-	private static final byte[] BASE64_DIGITS = new byte[] { 'A', 'B', 'C',
+	// The bits of the last digit that must be zero, by length % 4
+	private static final int[] PADDING = { 0, 0x3F, 0xF, 0x3 };
+
+	static final byte[] BASE64_DIGITS = new byte[] { 'A', 'B', 'C',
 			'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P',
 			'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c',
 			'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p',
@@ -49,21 +81,41 @@ public abstract class Binary {
 		return (char) BASE64_DIGITS[digit];
 	}
 
+	static final byte[] BASE64_VALUES = new byte[256];
+
+	static final byte[] HEX_VALUES = new byte[256];
+
+	// Pairs of digits for all 12 bit values, so that two digits take one
+	// lookup
+	private static final char[] BASE64_PAIRS = new char[2 * 4096];
+
+	static {
+		for (int i = 0; i < 4096; i++) {
+			BASE64_PAIRS[2 * i] = (char) BASE64_DIGITS[i >>> 6];
+			BASE64_PAIRS[2 * i + 1] = (char) BASE64_DIGITS[i & 0x3F];
+		}
+		Arrays.fill(BASE64_VALUES, (byte) -1);
+		for (int i = 0; i < BASE64_DIGITS.length; i++)
+			BASE64_VALUES[BASE64_DIGITS[i]] = (byte) i;
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		for (int i = 0; i < 0xA; i++)
+			HEX_VALUES['0' + i] = (byte) i;
+		for (int i = 0xA; i < 0x10; i++)
+			HEX_VALUES['A' + i - 0xA] = HEX_VALUES['a' + i - 0xA] = (byte) i;
+	}
+
 	public static byte asByte(char digit) {
-		if (digit == '-') { // ASCII 45
-			return 62; // See RFC 4648 base64url
-		} else if (digit <= '9') { // ASCII 48-57 ('0'-'9')
-			if (digit >= '0')
-				return (byte) (digit - '0' + 52); // Base64 52-61
-		} else if (digit <= 'Z') { // ASCII 65-90 ('A'-'Z')
-			if (digit >= 'A')
-				return (byte) (digit - 'A'); // Base64 0-25
-		} else if (digit == '_') { // ASCII 95
-			return 63; // See RFC 4648 base64url
-		} else if (digit <= 'z') // ASCII 97-122 ('a'-'z')
-			if (digit >= 'a')
-				return (byte) (digit - 'a' + 26); // Base64 26-51
-		throw new IllegalArgumentException(
+		// See RFC 4648 base64url; -1 marks characters outside the alphabet
+		if (digit <= 0xFF) {
+			final byte value = BASE64_VALUES[digit];
+			if (value >= 0)
+				return value;
+		}
+		throw forbidden(digit);
+	}
+
+	private static IllegalArgumentException forbidden(char digit) {
+		return new IllegalArgumentException(
 				"Invalid Base64: forbidden character: U+"
 						+ Integer.toHexString(digit));
 	}
@@ -87,55 +139,621 @@ public abstract class Binary {
 						+ Integer.toHexString(digit));
 	}
 
+	public static int encodedLength(int length) {
+		return length / 3 * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+	}
+
+	public static int decodedLength(int length) {
+		return length / 4 * 3 + length % 4 * 3 / 4;
+	}
+
 	public static char[] asCharArray(byte[] binary) {
-		final int size = binary.length * 8;
-		final int length = size / 6;
-		final int remainder = size % 6;
-		final char[] chars = new char[length + (remainder == 0 ? 0 : 1)];
-		for (int i = 0, j = 0; i < length; i++, j += 6) {
-			int position = j / 8;
-			int shift = j % 8;
-			byte m = binary[position];
-			if (shift <= 2)
-				chars[i] = asChar((byte) (((m & 0xFF) >>> (2 - shift)) & 0x3F));
-			else {
-				byte l = binary[position + 1];
-				chars[i] = asChar((byte) ((((m & 0xFF) << (shift - 2)) & 0x3F) | ((l & 0xFF) >>> (10 - shift))));
-			}
-		}
-		if (remainder > 0)
-			chars[length] = asChar((byte) (((binary[binary.length - 1] & 0xFF) << (6 - remainder)) & 0x3F));
+		final char[] chars = new char[encodedLength(binary.length)];
+		encode(binary, 0, binary.length, chars, 0);
 		return chars;
 	}
 
+	public static int asCharArray(byte[] binary, int offset, int length,
+			char[] out, int outOffset) {
+		checkBounds(binary.length, offset, length);
+		checkBounds(out.length, outOffset, encodedLength(length));
+		return encode(binary, offset, length, out, outOffset);
+	}
+
+	public static int asAsciiArray(byte[] binary, int offset, int length,
+			byte[] out, int outOffset) {
+		checkBounds(binary.length, offset, length);
+		checkBounds(out.length, outOffset, encodedLength(length));
+		return encode(binary, offset, length, out, outOffset);
+	}
+
+	public static int asCharBuffer(ByteBuffer binary, CharBuffer out) {
+		final int length = binary.remaining();
+		final int size = encodedLength(length);
+		if (out.remaining() < size)
+			throw new BufferOverflowException();
+		final int position = binary.position();
+		if (binary.hasArray() && out.hasArray())
+			encode(binary.array(), binary.arrayOffset() + position, length,
+					out.array(), out.arrayOffset() + out.position());
+		else
+			encode(binary, position, position + length, out, out.position());
+		binary.position(position + length);
+		out.position(out.position() + size);
+		return size;
+	}
+
+	public static int asAsciiBuffer(ByteBuffer binary, ByteBuffer out) {
+		final int length = binary.remaining();
+		final int size = encodedLength(length);
+		if (out.remaining() < size)
+			throw new BufferOverflowException();
+		final int position = binary.position();
+		if (binary.hasArray() && out.hasArray())
+			encode(binary.array(), binary.arrayOffset() + position, length,
+					out.array(), out.arrayOffset() + out.position());
+		else
+			encode(binary, position, position + length, out, out.position());
+		binary.position(position + length);
+		out.position(out.position() + size);
+		return size;
+	}
+
+	private static int encode(byte[] in, int offset, int length, char[] out,
+			int outOffset) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] digits = BASE64_DIGITS;
+		final int end = offset + length;
+		int i = offset, j = outOffset;
+		// Whole vectors of blocks, where the Vector API is available (see
+		// BinaryVectors)
+		final int vectors = BinaryVectors.encode(in, i, end, out, j);
+		i += vectors;
+		j += vectors / 3 * 4;
+		// Whole blocks of 6 bytes (48 bits) to 8 digits, 2 digits per lookup
+		final char[] pairs = BASE64_PAIRS;
+		for (final int blocks = end - (end - i) % 6; i < blocks; i += 6) {
+			final long bits = block(in, i);
+			int k = (int) (bits >>> 35) & 0x1FFE;
+			out[j] = pairs[k];
+			out[j + 1] = pairs[k + 1];
+			k = (int) (bits >>> 23) & 0x1FFE;
+			out[j + 2] = pairs[k];
+			out[j + 3] = pairs[k + 1];
+			k = (int) (bits >>> 11) & 0x1FFE;
+			out[j + 4] = pairs[k];
+			out[j + 5] = pairs[k + 1];
+			k = (int) (bits << 1) & 0x1FFE;
+			out[j + 6] = pairs[k];
+			out[j + 7] = pairs[k + 1];
+			j += 8;
+		}
+		// Then a whole block of 3 bytes (24 bits) to 4 digits
+		for (final int blocks = end - (end - i) % 3; i < blocks; i += 3) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+			out[j] = (char) digits[bits >>> 18];
+			out[j + 1] = (char) digits[(bits >>> 12) & 0x3F];
+			out[j + 2] = (char) digits[(bits >>> 6) & 0x3F];
+			out[j + 3] = (char) digits[bits & 0x3F];
+			j += 4;
+		}
+		// Trailing 8 or 16 bits, padded with zero bits to 12 or 18 bits
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| (n > 1 ? (in[i + 1] & 0xFF) << 8 : 0);
+			out[j++] = (char) digits[bits >>> 18];
+			out[j++] = (char) digits[(bits >>> 12) & 0x3F];
+			if (n > 1)
+				out[j++] = (char) digits[(bits >>> 6) & 0x3F];
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_ENCODE, start, length,
+					0);
+		return j - outOffset;
+	}
+
+	private static int encode(byte[] in, int offset, int length, byte[] out,
+			int outOffset) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] digits = BASE64_DIGITS;
+		final int end = offset + length;
+		int i = offset, j = outOffset;
+		final int vectors = BinaryVectors.encode(in, i, end, out, j);
+		i += vectors;
+		j += vectors / 3 * 4;
+		final char[] pairs = BASE64_PAIRS;
+		for (final int blocks = end - (end - i) % 6; i < blocks; i += 6) {
+			final long bits = block(in, i);
+			int k = (int) (bits >>> 35) & 0x1FFE;
+			out[j] = (byte) pairs[k];
+			out[j + 1] = (byte) pairs[k + 1];
+			k = (int) (bits >>> 23) & 0x1FFE;
+			out[j + 2] = (byte) pairs[k];
+			out[j + 3] = (byte) pairs[k + 1];
+			k = (int) (bits >>> 11) & 0x1FFE;
+			out[j + 4] = (byte) pairs[k];
+			out[j + 5] = (byte) pairs[k + 1];
+			k = (int) (bits << 1) & 0x1FFE;
+			out[j + 6] = (byte) pairs[k];
+			out[j + 7] = (byte) pairs[k + 1];
+			j += 8;
+		}
+		for (final int blocks = end - (end - i) % 3; i < blocks; i += 3) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+			out[j] = digits[bits >>> 18];
+			out[j + 1] = digits[(bits >>> 12) & 0x3F];
+			out[j + 2] = digits[(bits >>> 6) & 0x3F];
+			out[j + 3] = digits[bits & 0x3F];
+			j += 4;
+		}
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| (n > 1 ? (in[i + 1] & 0xFF) << 8 : 0);
+			out[j++] = digits[bits >>> 18];
+			out[j++] = digits[(bits >>> 12) & 0x3F];
+			if (n > 1)
+				out[j++] = digits[(bits >>> 6) & 0x3F];
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_ENCODE, start, length,
+					0);
+		return j - outOffset;
+	}
+
+	private static void encode(ByteBuffer in, int i, int end, CharBuffer out,
+			int j) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final int length = end - i;
+		final byte[] digits = BASE64_DIGITS;
+		for (final int blocks = end - (end - i) % 3; i < blocks; i += 3) {
+			final int bits = ((in.get(i) & 0xFF) << 16)
+					| ((in.get(i + 1) & 0xFF) << 8) | (in.get(i + 2) & 0xFF);
+			out.put(j, (char) digits[bits >>> 18]);
+			out.put(j + 1, (char) digits[(bits >>> 12) & 0x3F]);
+			out.put(j + 2, (char) digits[(bits >>> 6) & 0x3F]);
+			out.put(j + 3, (char) digits[bits & 0x3F]);
+			j += 4;
+		}
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = ((in.get(i) & 0xFF) << 16)
+					| (n > 1 ? (in.get(i + 1) & 0xFF) << 8 : 0);
+			out.put(j, (char) digits[bits >>> 18]);
+			out.put(j + 1, (char) digits[(bits >>> 12) & 0x3F]);
+			if (n > 1)
+				out.put(j + 2, (char) digits[(bits >>> 6) & 0x3F]);
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_ENCODE, start, length,
+					0);
+	}
+
+	private static void encode(ByteBuffer in, int i, int end, ByteBuffer out,
+			int j) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final int length = end - i;
+		final byte[] digits = BASE64_DIGITS;
+		for (final int blocks = end - (end - i) % 3; i < blocks; i += 3) {
+			final int bits = ((in.get(i) & 0xFF) << 16)
+					| ((in.get(i + 1) & 0xFF) << 8) | (in.get(i + 2) & 0xFF);
+			out.put(j, digits[bits >>> 18]);
+			out.put(j + 1, digits[(bits >>> 12) & 0x3F]);
+			out.put(j + 2, digits[(bits >>> 6) & 0x3F]);
+			out.put(j + 3, digits[bits & 0x3F]);
+			j += 4;
+		}
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = ((in.get(i) & 0xFF) << 16)
+					| (n > 1 ? (in.get(i + 1) & 0xFF) << 8 : 0);
+			out.put(j, digits[bits >>> 18]);
+			out.put(j + 1, digits[(bits >>> 12) & 0x3F]);
+			if (n > 1)
+				out.put(j + 2, digits[(bits >>> 6) & 0x3F]);
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_ENCODE, start, length,
+					0);
+	}
+
 	public static String asString(byte[] binary) {
 		return new String(asCharArray(binary));
 	}
 
 	public static byte[] asByteArray(CharSequence binary) {
-		final int size = binary.length() * 6;
-		final int length = size / 8;
-		final int remainder = size % 8;
-		final byte[] bytes = new byte[length];
-		for (int i = 0, j = 0; i < length; i++, j += 8) {
-			int position = j / 6;
-			int shift = j % 6;
-			char m = binary.charAt(position);
-			char l = binary.charAt(position + 1);
-			if (shift <= 4)
-				bytes[i] = (byte) ((Binary.asByte(m) << (2 + shift)) | (Binary
-						.asByte(l) >>> (4 - shift)));
+		final int length = binary.length();
+		final byte[] bytes = new byte[decodedLength(length)];
+		decode(binary, 0, length, bytes, 0);
+		return bytes;
+	}
+
+	public static int asByteArray(CharSequence binary, int start, int end,
+			byte[] out, int outOffset) {
+		checkBounds(binary.length(), start, end - start);
+		checkBounds(out.length, outOffset, decodedLength(end - start));
+		return decode(binary, start, end, out, outOffset);
+	}
+
+	public static int asByteArray(char[] binary, int offset, int length,
+			byte[] out, int outOffset) {
+		checkBounds(binary.length, offset, length);
+		checkBounds(out.length, outOffset, decodedLength(length));
+		return decode(binary, offset, offset + length, out, outOffset);
+	}
+
+	public static int asByteBuffer(CharBuffer binary, ByteBuffer out) {
+		final int length = binary.remaining();
+		final int size = decodedLength(length);
+		if (out.remaining() < size)
+			throw new BufferOverflowException();
+		if (!out.hasArray())
+			decode(binary, 0, length, out, out.position());
+		else if (binary.hasArray()) {
+			final int offset = binary.arrayOffset() + binary.position();
+			decode(binary.array(), offset, offset + length, out.array(),
+					out.arrayOffset() + out.position());
+		} else
+			decode(binary, 0, length, out.array(), out.arrayOffset()
+					+ out.position());
+		binary.position(binary.limit());
+		out.position(out.position() + size);
+		return size;
+	}
+
+	// The tryDecode methods validate and decode in one pass. They return the
+	// number of bytes decoded, or one of these negative codes if the input
+	// is not what isBinary accepts, without throwing; output may have been
+	// written up to the error
+
+	public static final int INVALID_CHARACTER = -1;
+
+	public static final int INVALID_LENGTH = -2;
+
+	public static final int NON_ZERO_PADDING = -3;
+
+	public static int tryDecode(CharSequence binary, int start, int end,
+			byte[] out, int outOffset) {
+		checkBounds(binary.length(), start, end - start);
+		checkBounds(out.length, outOffset, decodedLength(end - start));
+		final long started = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] values = BASE64_VALUES;
+		int i = start, j = outOffset;
+		int result = (end - start) % 4 == 1 ? INVALID_LENGTH : 0;
+		for (final int blocks = end - (end - start) % 4; result == 0
+				&& i < blocks; i += 4) {
+			final char a = binary.charAt(i), b = binary.charAt(i + 1), c = binary
+					.charAt(i + 2), d = binary.charAt(i + 3);
+			final int bits = (a | b | c | d) > 0xFF ? -1 : (values[a] << 18)
+					| (values[b] << 12) | (values[c] << 6) | values[d];
+			if (bits < 0)
+				result = INVALID_CHARACTER;
+			else {
+				out[j] = (byte) (bits >>> 16);
+				out[j + 1] = (byte) (bits >>> 8);
+				out[j + 2] = (byte) bits;
+				j += 3;
+			}
+		}
+		if (result == 0 && i < end) {
+			final char a = binary.charAt(i), b = binary.charAt(i + 1);
+			final char c = i + 2 < end ? binary.charAt(i + 2) : 'A';
+			result = tail(end - i, (a | b | c) > 0xFF ? -1
+					: (values[a] << 18) | (values[b] << 12) | (values[c] << 6),
+					out, j);
+			j += end - i - 1;
+		}
+		return decoded(started, end - start, result == 0 ? j - outOffset
+				: result);
+	}
+
+	public static int tryDecode(char[] binary, int offset, int length,
+			byte[] out, int outOffset) {
+		checkBounds(binary.length, offset, length);
+		checkBounds(out.length, outOffset, decodedLength(length));
+		final long started = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] values = BASE64_VALUES;
+		final int end = offset + length;
+		int i = offset, j = outOffset;
+		int result = length % 4 == 1 ? INVALID_LENGTH : 0;
+		for (final int blocks = end - length % 4; result == 0
+				&& i < blocks; i += 4) {
+			final char a = binary[i], b = binary[i + 1], c = binary[i + 2], d = binary[i
+					+ 3];
+			final int bits = (a | b | c | d) > 0xFF ? -1 : (values[a] << 18)
+					| (values[b] << 12) | (values[c] << 6) | values[d];
+			if (bits < 0)
+				result = INVALID_CHARACTER;
+			else {
+				out[j] = (byte) (bits >>> 16);
+				out[j + 1] = (byte) (bits >>> 8);
+				out[j + 2] = (byte) bits;
+				j += 3;
+			}
+		}
+		if (result == 0 && i < end) {
+			final char a = binary[i], b = binary[i + 1];
+			final char c = i + 2 < end ? binary[i + 2] : 'A';
+			result = tail(end - i, (a | b | c) > 0xFF ? -1
+					: (values[a] << 18) | (values[b] << 12) | (values[c] << 6),
+					out, j);
+			j += end - i - 1;
+		}
+		return decoded(started, length, result == 0 ? j - outOffset : result);
+	}
+
+	// Decodes the remaining US-ASCII bytes of the binary buffer; both buffers
+	// are advanced only if the input is valid
+	public static int tryDecodeAscii(ByteBuffer binary, ByteBuffer out) {
+		final int length = binary.remaining();
+		if (out.remaining() < decodedLength(length))
+			throw new BufferOverflowException();
+		final long started = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] values = BASE64_VALUES;
+		final int end = binary.limit();
+		int i = binary.position(), j = out.position();
+		int result = length % 4 == 1 ? INVALID_LENGTH : 0;
+		for (final int blocks = end - length % 4; result == 0
+				&& i < blocks; i += 4) {
+			final int bits = (values[binary.get(i) & 0xFF] << 18)
+					| (values[binary.get(i + 1) & 0xFF] << 12)
+					| (values[binary.get(i + 2) & 0xFF] << 6)
+					| values[binary.get(i + 3) & 0xFF];
+			if (bits < 0)
+				result = INVALID_CHARACTER;
 			else {
-				char n = binary.charAt(position + 2);
-				bytes[i] = (byte) ((Binary.asByte(m) << 7)
-						| (Binary.asByte(l) << 1) | (Binary.asByte(n) >>> 5));
+				out.put(j, (byte) (bits >>> 16));
+				out.put(j + 1, (byte) (bits >>> 8));
+				out.put(j + 2, (byte) bits);
+				j += 3;
 			}
 		}
-		if (remainder > 0
-				&& 0 != ((Binary.asByte(binary.charAt(binary.length() - 1)) << (6 - remainder)) & 0x3F))
+		if (result == 0 && i < end) {
+			final int n = end - i, bits = (values[binary.get(i) & 0xFF] << 18)
+					| (values[binary.get(i + 1) & 0xFF] << 12)
+					| (n > 2 ? values[binary.get(i + 2) & 0xFF] << 6 : 0);
+			result = tail(n, bits);
+			if (result == 0) {
+				out.put(j++, (byte) (bits >>> 16));
+				if (n > 2)
+					out.put(j++, (byte) (bits >>> 8));
+			}
+		}
+		if (result == 0) {
+			result = j - out.position();
+			binary.position(end);
+			out.position(j);
+		}
+		return decoded(started, length, result);
+	}
+
+	// Returns null instead of throwing if the input is not valid
+	public static byte[] tryAsByteArray(CharSequence binary) {
+		final int length = binary.length();
+		final byte[] bytes = new byte[decodedLength(length)];
+		return tryDecode(binary, 0, length, bytes, 0) < 0 ? null : bytes;
+	}
+
+	// Stores the 1 or 2 bytes of a 2 or 3 digit tail, given the bits of its
+	// digits, or returns an error code
+	private static int tail(int n, int bits, byte[] out, int j) {
+		final int result = tail(n, bits);
+		if (result != 0)
+			return result;
+		out[j] = (byte) (bits >>> 16);
+		if (n > 2)
+			out[j + 1] = (byte) (bits >>> 8);
+		return 0;
+	}
+
+	// Checks the 2 or 3 trailing digits, as bits, without writing them
+	private static int tail(int n, int bits) {
+		if (bits < 0)
+			return INVALID_CHARACTER;
+		if ((bits & (0xFFFFFF >>> ((n - 1) * 8))) != 0)
+			return NON_ZERO_PADDING;
+		return 0;
+	}
+
+	private static int decoded(long start, int length, int result) {
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_DECODE, start, length,
+					result < 0 ? 1 : 0);
+		return result;
+	}
+
+	private static int decode(CharSequence in, int start, int end,
+			byte[] out, int offset) {
+		final long started = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] values = BASE64_VALUES;
+		int i = start, j = offset;
+		// Whole blocks of 8 digits to 6 bytes (48 bits), then of 4 digits to
+		// 3 bytes (24 bits); a digit outside the alphabet looks up -1, which
+		// makes the combined bits negative
+		for (final int blocks = end - (end - start) % 8; i < blocks; i += 8) {
+			final char a = in.charAt(i), b = in.charAt(i + 1);
+			final char c = in.charAt(i + 2), d = in.charAt(i + 3);
+			final char e = in.charAt(i + 4), f = in.charAt(i + 5);
+			final char g = in.charAt(i + 6), h = in.charAt(i + 7);
+			final long bits = (a | b | c | d | e | f | g | h) > 0xFF ? -1
+					: bits(values, a, b, c, d, e, f, g, h);
+			if (bits < 0)
+				throw forbidden(a, b, c, d, e, f, g, h);
+			block(bits, out, j);
+			j += 6;
+		}
+		for (final int blocks = end - (end - start) % 4; i < blocks; i += 4) {
+			final char a = in.charAt(i), b = in.charAt(i + 1), c = in
+					.charAt(i + 2), d = in.charAt(i + 3);
+			final int bits = (a | b | c | d) > 0xFF ? -1 : (values[a] << 18)
+					| (values[b] << 12) | (values[c] << 6) | values[d];
+			if (bits < 0)
+				throw forbidden(a, b, c, d);
+			out[j] = (byte) (bits >>> 16);
+			out[j + 1] = (byte) (bits >>> 8);
+			out[j + 2] = (byte) bits;
+			j += 3;
+		}
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = tail(n, in.charAt(i),
+					n > 1 ? in.charAt(i + 1) : 'A',
+					n > 2 ? in.charAt(i + 2) : 'A');
+			if (n > 1)
+				out[j++] = (byte) (bits >>> 16);
+			if (n > 2)
+				out[j++] = (byte) (bits >>> 8);
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_DECODE, started,
+					end - start, 0);
+		return j - offset;
+	}
+
+	private static int decode(char[] in, int start, int end, byte[] out,
+			int offset) {
+		final long started = Metrics.ENABLED ? Metrics.start() : 0;
+		final byte[] values = BASE64_VALUES;
+		int i = start, j = offset;
+		final int vectors = BinaryVectors.decode(in, i, end, out, j);
+		i += vectors;
+		j += vectors / 4 * 3;
+		for (final int blocks = end - (end - i) % 8; i < blocks; i += 8) {
+			final char a = in[i], b = in[i + 1], c = in[i + 2], d = in[i + 3];
+			final char e = in[i + 4], f = in[i + 5], g = in[i + 6];
+			final char h = in[i + 7];
+			final long bits = (a | b | c | d | e | f | g | h) > 0xFF ? -1
+					: bits(values, a, b, c, d, e, f, g, h);
+			if (bits < 0)
+				throw forbidden(a, b, c, d, e, f, g, h);
+			block(bits, out, j);
+			j += 6;
+		}
+		for (final int blocks = end - (end - i) % 4; i < blocks; i += 4) {
+			final char a = in[i], b = in[i + 1], c = in[i + 2], d = in[i + 3];
+			final int bits = (a | b | c | d) > 0xFF ? -1 : (values[a] << 18)
+					| (values[b] << 12) | (values[c] << 6) | values[d];
+			if (bits < 0)
+				throw forbidden(a, b, c, d);
+			out[j] = (byte) (bits >>> 16);
+			out[j + 1] = (byte) (bits >>> 8);
+			out[j + 2] = (byte) bits;
+			j += 3;
+		}
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = tail(n, in[i], n > 1 ? in[i + 1] : 'A',
+					n > 2 ? in[i + 2] : 'A');
+			if (n > 1)
+				out[j++] = (byte) (bits >>> 16);
+			if (n > 2)
+				out[j++] = (byte) (bits >>> 8);
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_DECODE, started,
+					end - start, 0);
+		return j - offset;
+	}
+
+	private static void decode(CharSequence in, int i, int end,
+			ByteBuffer out, int j) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final int length = end - i;
+		final byte[] values = BASE64_VALUES;
+		for (final int blocks = end - (end - i) % 4; i < blocks; i += 4) {
+			final char a = in.charAt(i), b = in.charAt(i + 1), c = in
+					.charAt(i + 2), d = in.charAt(i + 3);
+			final int bits = (a | b | c | d) > 0xFF ? -1 : (values[a] << 18)
+					| (values[b] << 12) | (values[c] << 6) | values[d];
+			if (bits < 0)
+				throw forbidden(a, b, c, d);
+			out.put(j, (byte) (bits >>> 16));
+			out.put(j + 1, (byte) (bits >>> 8));
+			out.put(j + 2, (byte) bits);
+			j += 3;
+		}
+		final int n = end - i;
+		if (n > 0) {
+			final int bits = tail(n, in.charAt(i),
+					n > 1 ? in.charAt(i + 1) : 'A',
+					n > 2 ? in.charAt(i + 2) : 'A');
+			if (n > 1)
+				out.put(j, (byte) (bits >>> 16));
+			if (n > 2)
+				out.put(j + 1, (byte) (bits >>> 8));
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_DECODE, start, length,
+					0);
+	}
+
+	// The 48 bits of 6 bytes, most significant first
+	private static long block(byte[] in, int i) {
+		return ((in[i] & 0xFFL) << 40) | ((in[i + 1] & 0xFFL) << 32)
+				| ((in[i + 2] & 0xFFL) << 24) | ((in[i + 3] & 0xFF) << 16)
+				| ((in[i + 4] & 0xFF) << 8) | (in[i + 5] & 0xFF);
+	}
+
+	private static void block(long bits, byte[] out, int j) {
+		out[j] = (byte) (bits >>> 40);
+		out[j + 1] = (byte) (bits >>> 32);
+		out[j + 2] = (byte) (bits >>> 24);
+		out[j + 3] = (byte) (bits >>> 16);
+		out[j + 4] = (byte) (bits >>> 8);
+		out[j + 5] = (byte) bits;
+	}
+
+	// The 48 bits of 8 digits, which are negative if any digit is outside
+	// the alphabet
+	private static long bits(byte[] values, char a, char b, char c, char d,
+			char e, char f, char g, char h) {
+		return ((long) values[a] << 42) | ((long) values[b] << 36)
+				| ((long) values[c] << 30) | ((long) values[d] << 24)
+				| (values[e] << 18) | (values[f] << 12) | (values[g] << 6)
+				| values[h];
+	}
+
+	// Decodes the trailing 1-3 digits as a block where the missing digits are
+	// zero; of their 6, 12 or 18 bits, 6, 4 or 2 bits are padding
+	private static int tail(int n, char a, char b, char c) {
+		final int bits = (asByte(a) << 18) | (asByte(b) << 12)
+				| (asByte(c) << 6);
+		if ((bits & (0xFFFFFF >>> ((n - 1) * 8))) != 0) {
+			if (Metrics.ENABLED)
+				Metrics.record(Metrics.Operation.BINARY_DECODE, 0, 0, 1);
 			throw new IllegalArgumentException(
 					"Invalid Base64: non-zero bits in padding");
-		return bytes;
+		}
+		return bits;
+	}
+
+	private static IllegalArgumentException forbidden(char a, char b,
+			char c, char d) {
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.BINARY_DECODE, 0, 0, 1);
+		// Throws for the first forbidden character
+		asByte(a);
+		asByte(b);
+		asByte(c);
+		asByte(d);
+		throw new IllegalStateException();
+	}
+
+	private static IllegalArgumentException forbidden(char a, char b,
+			char c, char d, char e, char f, char g, char h) {
+		final byte[] values = BASE64_VALUES;
+		if ((a | b | c | d) > 0xFF
+				|| (values[a] | values[b] | values[c] | values[d]) < 0)
+			return forbidden(a, b, c, d);
+		return forbidden(e, f, g, h);
+	}
+
+	private static void checkBounds(int size, int offset, int length) {
+		if ((offset | length) < 0 || length > size - offset)
+			throw new IndexOutOfBoundsException();
 	}
 
 	public static Binary valueOf(final byte[] binary) {
@@ -149,6 +767,11 @@ public abstract class Binary {
 			public byte[] toByteArray() {
 				return binary;
 			}
+
+			@Override
+			public Binary memoize() {
+				return new Memo(binary, null, false);
+			}
 		};
 	}
 
@@ -161,11 +784,131 @@ public abstract class Binary {
 
 			@Override
 			public byte[] toByteArray() {
-				return asByteArray(CharBuffer.wrap(binary));
+				final byte[] bytes = new byte[decodedLength(binary.length)];
+				decode(binary, 0, binary.length, bytes, 0);
+				return bytes;
+			}
+
+			@Override
+			public Binary memoize() {
+				return new Memo(null, binary, false);
 			}
 		};
 	}
 
+	// Unlike the valueOf factories, these convert at most once and keep the
+	// result, along with the string and hash code. The memoize factories
+	// take over the array, which the caller must not change afterwards, and
+	// return the arrays they hold; the copyOf factories copy the array, and
+	// return copies, so that neither side can change the other's data
+
+	public static Binary memoize(byte[] binary) {
+		return new Memo(binary, null, false);
+	}
+
+	public static Binary memoize(char[] binary) {
+		return new Memo(null, binary, false);
+	}
+
+	public static Binary copyOf(byte[] binary) {
+		return new Memo(binary.clone(), null, true);
+	}
+
+	public static Binary copyOf(char[] binary) {
+		return new Memo(null, binary.clone(), true);
+	}
+
+	private static final class Memo extends Binary {
+
+		private volatile byte[] bytes;
+
+		private volatile char[] chars;
+
+		private volatile String string;
+
+		private final boolean copy;
+
+		private int hash;
+
+		private Memo(byte[] bytes, char[] chars, boolean copy) {
+			this.bytes = bytes;
+			this.chars = chars;
+			this.copy = copy;
+		}
+
+		@Override
+		public char[] toCharArray() {
+			return copy ? chars().clone() : chars();
+		}
+
+		@Override
+		public byte[] toByteArray() {
+			return copy ? bytes().clone() : bytes();
+		}
+
+		private char[] chars() {
+			char[] chars = this.chars;
+			if (chars == null)
+				synchronized (this) {
+					if ((chars = this.chars) == null)
+						this.chars = chars = asCharArray(bytes);
+				}
+			return chars;
+		}
+
+		@Override
+		byte[] bytes() {
+			byte[] bytes = this.bytes;
+			if (bytes == null)
+				synchronized (this) {
+					if ((bytes = this.bytes) == null) {
+						final char[] chars = this.chars;
+						bytes = new byte[decodedLength(chars.length)];
+						decode(chars, 0, chars.length, bytes, 0);
+						this.bytes = bytes;
+					}
+				}
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			String string = this.string;
+			if (string == null)
+				// Racy, like String.hashCode, as any thread computes the same
+				this.string = string = new String(chars());
+			return string;
+		}
+
+		@Override
+		public Binary memoize() {
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.hash;
+			if (hash == 0)
+				this.hash = hash = Arrays.hashCode(bytes());
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+			if (obj instanceof Memo) {
+				final Memo other = (Memo) obj;
+				final int a = hash, b = other.hash;
+				if (a != 0 && b != 0 && a != b)
+					return false;
+				return Arrays.equals(bytes(), other.bytes());
+			}
+			return super.equals(obj);
+		}
+
+	}
+
 	private Binary() {
 	}
 
@@ -173,6 +916,41 @@ public abstract class Binary {
 
 	public abstract byte[] toByteArray();
 
+	public Binary memoize() {
+		return new Memo(toByteArray().clone(), null, false);
+	}
+
+	// Returns the bytes, which the caller only reads
+	byte[] bytes() {
+		return toByteArray();
+	}
+
+	// Binaries are equal, hashed and ordered by their bytes, compared as
+	// unsigned
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof Binary))
+			return false;
+		return Arrays.equals(bytes(), ((Binary) obj).bytes());
+	}
+
+	public int compareTo(Binary other) {
+		final byte[] a = bytes(), b = other.bytes();
+		final int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++)
+			if (a[i] != b[i])
+				return (a[i] & 0xFF) - (b[i] & 0xFF);
+		return a.length - b.length;
+	}
+
 	@Override
 	public String toString() {
 		return new String(toCharArray());
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+public class BinaryInputStream extends InputStream implements
+		ReadableByteChannel {
+
+	private static final int BUFFER_SIZE = 4096; // Digits, a multiple of 4
+
+	private final Reader in;
+
+	// Digits read but not yet decoded
+	private final char[] chars = new char[BUFFER_SIZE];
+
+	private int position, limit;
+
+	// Bytes decoded but not yet read, from a group or the end of the stream
+	private final byte[] group = new byte[3];
+
+	private int next, last;
+
+	private byte[] scratch;
+
+	private boolean eof, closed;
+
+	public BinaryInputStream(Reader in) {
+		this.in = in;
+	}
+
+	@Override
+	public int read() throws IOException {
+		ensureOpen();
+		if (next == last) {
+			next = last = 0;
+			if (!fill())
+				return -1;
+			if (limit - position >= 4)
+				last = decode(group, 0, 4);
+		}
+		return next < last ? group[next++] & 0xFF : read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if ((off | len) < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		if (len == 0)
+			return 0;
+		int n = 0;
+		while (n < len) {
+			if (next < last) {
+				b[off + n++] = group[next++];
+				continue;
+			}
+			if (limit - position < 4) {
+				if (n > 0) // Don't block once some bytes have been read
+					break;
+				next = last = 0;
+				if (!fill())
+					break;
+				if (limit - position < 4)
+					continue; // Drain the end of the stream
+			}
+			final int groups = Math.min((limit - position) / 4, (len - n) / 3);
+			if (groups == 0) { // Fewer than 3 bytes wanted
+				next = 0;
+				last = decode(group, 0, 4);
+			} else
+				n += decode(b, off + n, groups * 4);
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	public int read(ByteBuffer dst) throws IOException {
+		if (dst.hasArray()) {
+			final int n = read(dst.array(), dst.arrayOffset() + dst.position(),
+					dst.remaining());
+			if (n > 0)
+				dst.position(dst.position() + n);
+			return n;
+		}
+		if (scratch == null)
+			scratch = new byte[BUFFER_SIZE / 4 * 3];
+		final int n = read(scratch, 0, Math.min(dst.remaining(), scratch.length));
+		if (n > 0)
+			dst.put(scratch, 0, n);
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		ensureOpen();
+		return last - next + (limit - position) / 4 * 3;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		in.close();
+	}
+
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	// Reads until at least one group of 4 digits is buffered, or decodes the
+	// trailing digits at the end of the stream; false if nothing remains
+	private boolean fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(chars, position, chars, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while (limit < 4 && !eof) {
+			final int n = in.read(chars, limit, chars.length - limit);
+			if (n < 0)
+				eof = true;
+			else
+				limit += n;
+		}
+		if (limit >= 4)
+			return true;
+		if (limit == 0)
+			return false;
+		// The trailing 1-3 digits, with the same padding rules as Binary
+		last = decode(group, 0, limit);
+		return true;
+	}
+
+	private int decode(byte[] b, int off, int length) throws IOException {
+		try {
+			final int n = Binary.asByteArray(chars, position, length, b, off);
+			position += length;
+			return n;
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+	}
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+public class BinaryOutputStream extends OutputStream implements
+		WritableByteChannel {
+
+	private static final int BUFFER_SIZE = 4096; // Digits, a multiple of 4
+
+	private final Appendable out;
+
+	private final char[] chars = new char[BUFFER_SIZE];
+
+	private final CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+	private int count;
+
+	// A partial group of up to 2 bytes, carried over to the next write
+	private final byte[] group = new byte[3];
+
+	private int grouped;
+
+	private byte[] scratch;
+
+	private boolean closed;
+
+	public BinaryOutputStream(Appendable out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		group[grouped++] = (byte) b;
+		if (grouped == 3) {
+			if (count == chars.length)
+				flushChars();
+			count += Binary.asCharArray(group, 0, 3, chars, count);
+			grouped = 0;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if ((off | len) < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		while (grouped > 0 && len > 0) { // Complete the partial group first
+			write(b[off++]);
+			len--;
+		}
+		while (len >= 3) {
+			final int room = (chars.length - count) / 4 * 3;
+			if (room == 0) {
+				flushChars();
+				continue;
+			}
+			final int n = Math.min(len - len % 3, room);
+			count += Binary.asCharArray(b, off, n, chars, count);
+			off += n;
+			len -= n;
+		}
+		while (len-- > 0)
+			group[grouped++] = b[off++];
+	}
+
+	public int write(ByteBuffer src) throws IOException {
+		final int length = src.remaining();
+		if (src.hasArray()) {
+			write(src.array(), src.arrayOffset() + src.position(), length);
+			src.position(src.limit());
+		} else {
+			if (scratch == null)
+				scratch = new byte[BUFFER_SIZE / 4 * 3];
+			while (src.hasRemaining()) {
+				final int n = Math.min(src.remaining(), scratch.length);
+				src.get(scratch, 0, n);
+				write(scratch, 0, n);
+			}
+		}
+		return length;
+	}
+
+	// Writes out whole groups only; a partial group is kept until close
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		flushChars();
+		if (out instanceof Flushable)
+			((Flushable) out).flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		if (grouped > 0) { // Trailing 1 or 2 bytes as 2 or 3 digits
+			if (chars.length - count < 3)
+				flushChars();
+			count += Binary.asCharArray(group, 0, grouped, chars, count);
+			grouped = 0;
+		}
+		flushChars();
+		closed = true;
+		if (out instanceof Closeable)
+			((Closeable) out).close();
+		else if (out instanceof Flushable)
+			((Flushable) out).flush();
+	}
+
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	private void flushChars() throws IOException {
+		if (count == 0)
+			return;
+		if (out instanceof Writer)
+			((Writer) out).write(chars, 0, count);
+		else if (out instanceof StringBuilder)
+			((StringBuilder) out).append(chars, 0, count);
+		else
+			out.append(charBuffer, 0, count);
+		count = 0;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+	}
+
+}
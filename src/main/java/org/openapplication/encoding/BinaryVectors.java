@@ -0,0 +1,47 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+// Encodes and decodes whole vectors of Base64 blocks for Binary. This is the
+// portable version, which does nothing. The multi-release JAR has a version
+// for Java 17 and later (in src/main/java17) that uses the Vector API when
+// the incubating jdk.incubator.vector module is added to the run time
+// (--add-modules jdk.incubator.vector). Each method returns the number of
+// bytes or digits of the input that it used, always whole blocks, and
+// leaves the rest to the scalar code in Binary; both must give the same
+// output for the same input.
+final class BinaryVectors {
+
+	static final boolean ENABLED = false;
+
+	static int encode(byte[] in, int i, int end, char[] out, int j) {
+		return 0;
+	}
+
+	static int encode(byte[] in, int i, int end, byte[] out, int j) {
+		return 0;
+	}
+
+	// Stops before a vector with a digit outside the alphabet, so that the
+	// scalar code reports the error
+	static int decode(char[] in, int i, int end, byte[] out, int j) {
+		return 0;
+	}
+
+	private BinaryVectors() {
+	}
+
+}
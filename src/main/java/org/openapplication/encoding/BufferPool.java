@@ -0,0 +1,79 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A pool of direct byte buffers of one size, which are expensive to allocate
+// and are only freed by the garbage collector. Larger requests get a buffer
+// of their own that is not pooled. A released buffer must not be used again,
+// through duplicates or slices either. The pool is thread-safe.
+public final class BufferPool {
+
+	private final int bufferSize, maximumBuffers;
+
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	public BufferPool(int bufferSize, int maximumBuffers) {
+		if (bufferSize < 1 || maximumBuffers < 0)
+			throw new IllegalArgumentException(
+					"Buffer size must be positive and maximum buffers non-negative");
+		this.bufferSize = bufferSize;
+		this.maximumBuffers = maximumBuffers;
+	}
+
+	public int bufferSize() {
+		return bufferSize;
+	}
+
+	// Returns a cleared buffer with room for at least size bytes
+	public ByteBuffer acquire(int size) {
+		if (size > bufferSize)
+			return ByteBuffer.allocateDirect(size);
+		final ByteBuffer buffer = buffers.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		count.decrementAndGet();
+		return buffer;
+	}
+
+	public ByteBuffer acquire() {
+		return acquire(bufferSize);
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.isReadOnly()
+				|| buffer.capacity() != bufferSize)
+			return;
+		if (count.incrementAndGet() > maximumBuffers) {
+			count.decrementAndGet();
+			return;
+		}
+		buffer.clear();
+		buffers.offer(buffer);
+	}
+
+	// The number of buffers waiting in the pool
+	public int size() {
+		return count.get();
+	}
+
+}
@@ -15,26 +15,25 @@
  */
 package org.openapplication.encoding;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
-import static org.openapplication.encoding.Binary.asByte;
-import static org.openapplication.encoding.Binary.asChar;
-import static org.openapplication.encoding.Binary.asHexByte;
-import static org.openapplication.encoding.Binary.asHexChar;
 
-public abstract class Id {
+public abstract class Id implements Comparable<Id> {
 
 	private static final Pattern REGEX_UUID = Pattern
 			.compile("[A-Za-z0-9\\-_]{21,22}|[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
 
-	private static final UUID NS_URI = UUID
-			.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8");
+	static final Namespace NS_URI = new Namespace(
+			UUID.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8"));
 
 	public static boolean isUuid(CharSequence uuid) {
 		if (uuid.length() < 21)
@@ -67,6 +66,15 @@ public abstract class Id {
 				(byte) ((l & (x >>> 56)) >>> 0) };
 	}
 
+	private static void asByteArray(UUID uuid, byte[] out) {
+		final long m = uuid.getMostSignificantBits();
+		final long l = uuid.getLeastSignificantBits();
+		for (int i = 0; i < 8; i++) {
+			out[i] = (byte) (m >>> (56 - 8 * i));
+			out[i + 8] = (byte) (l >>> (56 - 8 * i));
+		}
+	}
+
 	public static void asByteArray(UUID uuid, ByteBuffer out) {
 		final long m = uuid.getMostSignificantBits();
 		final long l = uuid.getLeastSignificantBits();
@@ -136,38 +144,51 @@ public abstract class Id {
 	public static char[] asCharArray(UUID uuid) {
 		final long m = uuid.getMostSignificantBits();
 		final long l = uuid.getLeastSignificantBits();
-		if (2 != (l >>> 62)) // If the UUID variant isn't standard
+		if (!isStandard(l)) // If the UUID variant isn't standard
 			return Binary.asCharArray(asByteArray(uuid));
-		final long x = 0xFC00000000000000L;
-		return new char[] {
-				// Most significant 64 bits
-				asChar((byte) ((m & (x >>> 0)) >>> 58)), // 0-5
-				asChar((byte) ((m & (x >>> 6)) >>> 52)), // 6-11
-				asChar((byte) ((m & (x >>> 12)) >>> 46)), // 12-17
-				asChar((byte) ((m & (x >>> 18)) >>> 40)), // 18-23
-				asChar((byte) ((m & (x >>> 24)) >>> 34)), // 24-29
-				asChar((byte) ((m & (x >>> 30)) >>> 28)), // 30-35
-				asChar((byte) ((m & (x >>> 36)) >>> 22)), // 36-41
-				asChar((byte) ((m & (x >>> 42)) >>> 16)), // 42-47
-				asChar((byte) ((m & (x >>> 48)) >>> 10)), // 48-53
-				asChar((byte) ((m & (x >>> 54)) >>> 4)), // 54-59
-				asChar((byte) (((m & (x >>> 60)) << 2) // 60-63
-				// Least significant 64 bits
-				// Ignoring bits 64-65! For standard UUIDs, they are always 1 0,
-				// so we skip them to get 126 bits of output (which can be
-				// Base64 encoded without overhead)
-				| ((l >>> 60) & 0x3))), // 66-67
-				asChar((byte) ((l & (x >>> 4)) >>> 54)), // 68-73
-				asChar((byte) ((l & (x >>> 10)) >>> 48)), // 74-79
-				asChar((byte) ((l & (x >>> 16)) >>> 42)), // 80-85
-				asChar((byte) ((l & (x >>> 22)) >>> 36)), // 86-91
-				asChar((byte) ((l & (x >>> 28)) >>> 30)), // 92-97
-				asChar((byte) ((l & (x >>> 34)) >>> 24)), // 98-103
-				asChar((byte) ((l & (x >>> 40)) >>> 18)), // 104-109
-				asChar((byte) ((l & (x >>> 46)) >>> 12)), // 110-115
-				asChar((byte) ((l & (x >>> 52)) >>> 6)), // 116-121
-				asChar((byte) ((l & (x >>> 58)) >>> 0)) // 122-127
-		};
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final char[] chars = new char[21];
+		encode(m, l, chars, 0);
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.ID_FORMAT, start, 21, 0);
+		return chars;
+	}
+
+	static boolean isStandard(long leastSignificantBits) {
+		return 2 == (leastSignificantBits >>> 62);
+	}
+
+	// Encodes the most significant 64 bits as digits 0-9 and the first 4
+	// bits of digit 10, and the least significant 64 bits as the last 2 bits
+	// of digit 10 and digits 11-20. Bits 64-65 are skipped! For standard
+	// UUIDs, they are always 1 0, so skipping them leaves 126 bits of output
+	// (which can be Base64 encoded without overhead)
+
+	static void encode(long m, long l, char[] out, int j) {
+		final byte[] digits = Binary.BASE64_DIGITS;
+		for (int shift = 58; shift > 0; shift -= 6)
+			out[j++] = (char) digits[(int) (m >>> shift) & 0x3F];
+		out[j++] = (char) digits[(int) ((m & 0xF) << 2 | (l >>> 60) & 0x3)];
+		for (int shift = 54; shift >= 0; shift -= 6)
+			out[j++] = (char) digits[(int) (l >>> shift) & 0x3F];
+	}
+
+	static void encode(long m, long l, byte[] out, int j) {
+		final byte[] digits = Binary.BASE64_DIGITS;
+		for (int shift = 58; shift > 0; shift -= 6)
+			out[j++] = digits[(int) (m >>> shift) & 0x3F];
+		out[j++] = digits[(int) ((m & 0xF) << 2 | (l >>> 60) & 0x3)];
+		for (int shift = 54; shift >= 0; shift -= 6)
+			out[j++] = digits[(int) (l >>> shift) & 0x3F];
+	}
+
+	static void encode(long m, long l, ByteBuffer out, int j) {
+		final byte[] digits = Binary.BASE64_DIGITS;
+		for (int shift = 58; shift > 0; shift -= 6)
+			out.put(j++, digits[(int) (m >>> shift) & 0x3F]);
+		out.put(j++, digits[(int) ((m & 0xF) << 2 | (l >>> 60) & 0x3)]);
+		for (int shift = 54; shift >= 0; shift -= 6)
+			out.put(j++, digits[(int) (l >>> shift) & 0x3F]);
 	}
 
 	public static String asString(UUID uuid) {
@@ -175,50 +196,235 @@ public abstract class Id {
 	}
 
 	public static UUID asUuid(CharSequence uuid) {
-		switch (uuid.length()) {
+		final long[] bits = new long[2];
+		if (!parse(uuid, 0, uuid.length(), bits, 0))
+			throw unrecognized();
+		return new UUID(bits[0], bits[1]);
+	}
+
+	public static UUID asUuid(char[] uuid, int offset, int length) {
+		final long[] bits = new long[2];
+		if (!tryParse(uuid, offset, length, bits, 0))
+			throw unrecognized();
+		return new UUID(bits[0], bits[1]);
+	}
+
+	private static IllegalArgumentException unrecognized() {
+		return new IllegalArgumentException(
+				"The character sequence is not a recognized UUID");
+	}
+
+	// The tryParse methods accept the 21, 22 and 36 character forms. They
+	// store the most and least significant 64 bits at out[offset] and
+	// out[offset + 1], and return false instead of throwing if the input is
+	// not a recognized UUID (in which case out is left unchanged)
+
+	public static boolean tryParse(CharSequence uuid, long[] out, int offset) {
+		return parse(uuid, 0, uuid.length(), out, offset);
+	}
+
+	public static boolean tryParse(CharSequence uuid, int start, int end,
+			long[] out, int offset) {
+		if ((start | end) < 0 || start > end || end > uuid.length())
+			throw new IndexOutOfBoundsException();
+		return parse(uuid, start, end, out, offset);
+	}
+
+	public static boolean tryParse(char[] uuid, int offset, int length,
+			long[] out, int outOffset) {
+		if ((offset | length) < 0 || length > uuid.length - offset)
+			throw new IndexOutOfBoundsException();
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final int i = offset;
+		switch (length) {
 		case 21:
-			return new UUID( // Most significant 64 bits
-					((long) asByte(uuid.charAt(0)) << 58)
-							| ((long) asByte(uuid.charAt(1)) << 52)
-							| ((long) asByte(uuid.charAt(2)) << 46)
-							| ((long) asByte(uuid.charAt(3)) << 40)
-							| ((long) asByte(uuid.charAt(4)) << 34)
-							| ((long) asByte(uuid.charAt(5)) << 28)
-							| ((long) asByte(uuid.charAt(6)) << 22)
-							| ((long) asByte(uuid.charAt(7)) << 16)
-							| ((long) asByte(uuid.charAt(8)) << 10)
-							| ((long) asByte(uuid.charAt(9)) << 4)
-							| ((long) asByte(uuid.charAt(10)) >>> 2),
-					// Least significant 64 bits
-					// Bits 64-65 are always 1 0 for standard UUIDs, and those
-					// bits are assumed to be skipped in the input because
-					// without them, there is no longer a need to incur any
-					// Base64 encoding overhead (128-2=126 is divisible by 6)
-					((0x8 | (0x3 & (long) asByte(uuid.charAt(10)))) << 60)
-							| ((long) asByte(uuid.charAt(11)) << 54)
-							| ((long) asByte(uuid.charAt(12)) << 48)
-							| ((long) asByte(uuid.charAt(13)) << 42)
-							| ((long) asByte(uuid.charAt(14)) << 36)
-							| ((long) asByte(uuid.charAt(15)) << 30)
-							| ((long) asByte(uuid.charAt(16)) << 24)
-							| ((long) asByte(uuid.charAt(17)) << 18)
-							| ((long) asByte(uuid.charAt(18)) << 12)
-							| ((long) asByte(uuid.charAt(19)) << 6)
-							| ((long) asByte(uuid.charAt(20)) << 0));
+			return parsed(start, length, compact(base64(uuid, i, 10),
+					base64(uuid, i + 10, 1), base64(uuid, i + 11, 10), out,
+					outOffset));
 		case 22:
-			return asUuid(Binary.asByteArray(uuid));
+			return parsed(start, length, binary(base64(uuid, i, 10),
+					base64(uuid, i + 10, 1), base64(uuid, i + 11, 10),
+					base64(uuid, i + 21, 1), out, outOffset));
 		case 36:
-			return UUID.fromString(uuid.toString());
+			if (uuid[i + 8] != '-' || uuid[i + 13] != '-'
+					|| uuid[i + 18] != '-' || uuid[i + 23] != '-')
+				return parsed(start, length, false);
+			return parsed(start, length, hex(hex(uuid, i, 8),
+					hex(uuid, i + 9, 4), hex(uuid, i + 14, 4),
+					hex(uuid, i + 19, 4), hex(uuid, i + 24, 12), out, outOffset));
 		}
-		throw new IllegalArgumentException(
-				"The character sequence is not a recognized UUID");
+		return parsed(start, length, false);
+	}
+
+	// Parses the remaining US-ASCII bytes of the buffer, and advances its
+	// position to the limit only if they are a recognized UUID
+	public static boolean tryParseAscii(ByteBuffer uuid, long[] out, int offset) {
+		if (!parse(uuid, uuid.position(), uuid.remaining(), out, offset))
+			return false;
+		uuid.position(uuid.limit());
+		return true;
+	}
+
+	static boolean parse(ByteBuffer uuid, int i, int length, long[] out,
+			int offset) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		switch (length) {
+		case 21:
+			return parsed(start, length, compact(base64(uuid, i, 10),
+					base64(uuid, i + 10, 1), base64(uuid, i + 11, 10), out,
+					offset));
+		case 22:
+			return parsed(start, length, binary(base64(uuid, i, 10),
+					base64(uuid, i + 10, 1), base64(uuid, i + 11, 10),
+					base64(uuid, i + 21, 1), out, offset));
+		case 36:
+			if (uuid.get(i + 8) != '-' || uuid.get(i + 13) != '-'
+					|| uuid.get(i + 18) != '-' || uuid.get(i + 23) != '-')
+				return parsed(start, length, false);
+			return parsed(start, length, hex(hex(uuid, i, 8),
+					hex(uuid, i + 9, 4), hex(uuid, i + 14, 4),
+					hex(uuid, i + 19, 4), hex(uuid, i + 24, 12), out, offset));
+		}
+		return parsed(start, length, false);
+	}
+
+	private static boolean parse(CharSequence uuid, int i, int end,
+			long[] out, int offset) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		switch (end - i) {
+		case 21:
+			return parsed(start, end - i, compact(base64(uuid, i, 10),
+					base64(uuid, i + 10, 1), base64(uuid, i + 11, 10), out,
+					offset));
+		case 22:
+			return parsed(start, end - i, binary(base64(uuid, i, 10),
+					base64(uuid, i + 10, 1), base64(uuid, i + 11, 10),
+					base64(uuid, i + 21, 1), out, offset));
+		case 36:
+			if (uuid.charAt(i + 8) != '-' || uuid.charAt(i + 13) != '-'
+					|| uuid.charAt(i + 18) != '-'
+					|| uuid.charAt(i + 23) != '-')
+				return parsed(start, end - i, false);
+			return parsed(start, end - i, hex(hex(uuid, i, 8),
+					hex(uuid, i + 9, 4), hex(uuid, i + 14, 4),
+					hex(uuid, i + 19, 4), hex(uuid, i + 24, 12), out, offset));
+		}
+		return parsed(start, end - i, false);
+	}
+
+	private static boolean parsed(long start, int length, boolean parsed) {
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.ID_PARSE, start, length,
+					parsed ? 0 : 1);
+		return parsed;
+	}
+
+	// Digits are accumulated into at most 60 bits (10 Base64 digits or 12
+	// hexadecimal digits), so a digit outside the alphabet, which looks up
+	// -1, leaves the accumulated bits negative
+
+	static long base64(CharSequence in, int i, int n) {
+		final byte[] values = Binary.BASE64_VALUES;
+		long bits = 0;
+		for (final int end = i + n; i < end; i++) {
+			final char c = in.charAt(i);
+			bits = (bits << 6) | (c > 0xFF ? -1 : values[c]);
+		}
+		return bits;
+	}
+
+	private static long base64(char[] in, int i, int n) {
+		final byte[] values = Binary.BASE64_VALUES;
+		long bits = 0;
+		for (final int end = i + n; i < end; i++) {
+			final char c = in[i];
+			bits = (bits << 6) | (c > 0xFF ? -1 : values[c]);
+		}
+		return bits;
+	}
+
+	private static long base64(ByteBuffer in, int i, int n) {
+		final byte[] values = Binary.BASE64_VALUES;
+		long bits = 0;
+		for (final int end = i + n; i < end; i++)
+			bits = (bits << 6) | values[in.get(i) & 0xFF];
+		return bits;
+	}
+
+	private static long hex(CharSequence in, int i, int n) {
+		final byte[] values = Binary.HEX_VALUES;
+		long bits = 0;
+		for (final int end = i + n; i < end; i++) {
+			final char c = in.charAt(i);
+			bits = (bits << 4) | (c > 0xFF ? -1 : values[c]);
+		}
+		return bits;
+	}
+
+	private static long hex(char[] in, int i, int n) {
+		final byte[] values = Binary.HEX_VALUES;
+		long bits = 0;
+		for (final int end = i + n; i < end; i++) {
+			final char c = in[i];
+			bits = (bits << 4) | (c > 0xFF ? -1 : values[c]);
+		}
+		return bits;
+	}
+
+	private static long hex(ByteBuffer in, int i, int n) {
+		final byte[] values = Binary.HEX_VALUES;
+		long bits = 0;
+		for (final int end = i + n; i < end; i++)
+			bits = (bits << 4) | values[in.get(i) & 0xFF];
+		return bits;
+	}
+
+	// 21 digits: 60 bits, 6 bits of which the first 4 end the most
+	// significant 64 bits, and 60 bits; bits 64-65 are always 1 0 for
+	// standard UUIDs, and are skipped (see asCharArray)
+	private static boolean compact(long high, long middle, long low,
+			long[] out, int offset) {
+		if ((high | middle | low) < 0)
+			return false;
+		out[offset] = mostSignificantBits(high, middle);
+		out[offset + 1] = leastSignificantBits(middle, low);
+		return true;
+	}
+
+	static long mostSignificantBits(long high, long middle) {
+		return (high << 4) | (middle >>> 2);
+	}
+
+	static long leastSignificantBits(long middle, long low) {
+		return ((0x8 | (middle & 0x3)) << 60) | low;
+	}
+
+	// 22 digits: as above, but with all 128 bits and a last digit of which
+	// the 4 padding bits must be zero (see Binary.asByteArray)
+	private static boolean binary(long high, long middle, long low,
+			long last, long[] out, int offset) {
+		if ((high | middle | low | last) < 0 || (last & 0xF) != 0)
+			return false;
+		out[offset] = (high << 4) | (middle >>> 2);
+		out[offset + 1] = (middle << 62) | (low << 2) | (last >>> 4);
+		return true;
+	}
+
+	// 36 characters: 8-4-4-4-12 hexadecimal digits
+	private static boolean hex(long a, long b, long c, long d, long e,
+			long[] out, int offset) {
+		if ((a | b | c | d | e) < 0)
+			return false;
+		out[offset] = (a << 32) | (b << 16) | c;
+		out[offset + 1] = (d << 48) | e;
+		return true;
 	}
 
 	public static UUID asUuid(final URI uri) {
 		if (uri.isOpaque() && "urn".equals(uri.getScheme())
 				&& uri.getSchemeSpecificPart().startsWith("uuid:"))
 			return UUID.fromString(uri.getSchemeSpecificPart().substring(5));
-		return asUuid(NS_URI, new Name() {
+		return NS_URI.asUuid(new Name() {
 			@Override
 			public void update(MessageDigest digest) {
 				digest.update(Text.asByteBuffer(uri.toString()));
@@ -239,33 +445,169 @@ public abstract class Id {
 	}
 
 	public static UUID asUuid(UUID namespace, Name name) {
-		MessageDigest digest;
+		final Sha1 sha1 = Sha1.get();
 		try {
-			digest = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("SHA-1 message digest unavailable");
+			asByteArray(namespace, sha1.bytes);
+			sha1.digest.update(sha1.bytes, 0, 16);
+			return sha1.uuid(name);
+		} finally {
+			sha1.release();
 		}
-		digest.update(asByteArray(namespace));
-		name.update(digest);
-		byte[] hash = digest.digest();
-		return new UUID( // Most significant 64 bits
-				(((long) (hash[0] & 0xFF)) << 56)
-						| (((long) (hash[1] & 0xFF)) << 48)
-						| (((long) (hash[2] & 0xFF)) << 40)
-						| (((long) (hash[3] & 0xFF)) << 32)
-						| (((long) (hash[4] & 0xFF)) << 24)
-						| (((long) (hash[5] & 0xFF)) << 16)
-						| (((long) ((hash[6] & 0xF) | 0x50)) << 8)
-						| (((long) (hash[7] & 0xFF)) << 0),
-				// Least significant 64 bits
-				(((long) ((hash[8] & 0x3F) | 0x80)) << 56)
-						| ((long) (hash[9] & 0xFF) << 48)
-						| ((long) (hash[10] & 0xFF) << 40)
-						| ((long) (hash[11] & 0xFF) << 32)
-						| ((long) (hash[12] & 0xFF) << 24)
-						| ((long) (hash[13] & 0xFF) << 16)
-						| ((long) (hash[14] & 0xFF) << 8)
-						| ((long) (hash[15] & 0xFF) << 0));
+	}
+
+	// A name-based (version 5) UUID namespace. The namespace is encoded
+	// once, and the names of a batch are hashed with the same digest
+	public static final class Namespace {
+
+		private final UUID uuid;
+
+		private final byte[] bytes;
+
+		public Namespace(UUID uuid) {
+			this.uuid = uuid;
+			this.bytes = asByteArray(uuid);
+		}
+
+		public UUID toUuid() {
+			return uuid;
+		}
+
+		public UUID asUuid(Name name) {
+			final Sha1 sha1 = Sha1.get();
+			try {
+				sha1.digest.update(bytes);
+				return sha1.uuid(name);
+			} finally {
+				sha1.release();
+			}
+		}
+
+		public void asUuid(Name name, long[] out, int offset) {
+			final Sha1 sha1 = Sha1.get();
+			try {
+				sha1.digest.update(bytes);
+				sha1.hash(name);
+				out[offset] = sha1.mostSignificantBits();
+				out[offset + 1] = sha1.leastSignificantBits();
+			} finally {
+				sha1.release();
+			}
+		}
+
+		// Stores the ID for names[offset + i] in msb[outOffset + i] and
+		// lsb[outOffset + i] (see IdArrays)
+		public void asUuids(Name[] names, int offset, int count, long[] msb,
+				long[] lsb, int outOffset) {
+			if ((offset | count | outOffset) < 0
+					|| count > names.length - offset
+					|| count > msb.length - outOffset
+					|| count > lsb.length - outOffset)
+				throw new IndexOutOfBoundsException();
+			asUuids(names, offset, count, msb, outOffset, lsb, outOffset, 1);
+		}
+
+		// Stores the ID for names[offset + i] packed in ids[outOffset + 2 * i]
+		// and ids[outOffset + 2 * i + 1] (see IdArrays)
+		public void asUuids(Name[] names, int offset, int count, long[] ids,
+				int outOffset) {
+			if ((offset | count | outOffset) < 0
+					|| count > names.length - offset
+					|| 2L * count > ids.length - outOffset)
+				throw new IndexOutOfBoundsException();
+			asUuids(names, offset, count, ids, outOffset, ids, outOffset + 1,
+					2);
+		}
+
+		private void asUuids(Name[] names, int offset, int count, long[] m,
+				int mi, long[] l, int li, int stride) {
+			final Sha1 sha1 = Sha1.get();
+			try {
+				for (int i = 0; i < count; i++, mi += stride, li += stride) {
+					sha1.digest.update(bytes);
+					sha1.hash(names[offset + i]);
+					m[mi] = sha1.mostSignificantBits();
+					l[li] = sha1.leastSignificantBits();
+				}
+			} finally {
+				sha1.release();
+			}
+		}
+
+	}
+
+	// A thread-confined SHA-1 digest, which avoids the provider lookup of
+	// MessageDigest.getInstance. If a name hashes another name while it is
+	// being hashed, the nested hash gets a digest of its own
+	private static final class Sha1 {
+
+		private static final ThreadLocal<Sha1> localSha1 = new ThreadLocal<Sha1>() {
+			@Override
+			protected Sha1 initialValue() {
+				return new Sha1();
+			}
+		};
+
+		static Sha1 get() {
+			Sha1 sha1 = localSha1.get();
+			if (sha1.busy)
+				sha1 = new Sha1();
+			sha1.busy = true;
+			return sha1;
+		}
+
+		final MessageDigest digest;
+
+		final byte[] bytes = new byte[20];
+
+		boolean busy;
+
+		private Sha1() {
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("SHA-1 message digest unavailable");
+			}
+		}
+
+		void release() {
+			digest.reset();
+			busy = false;
+		}
+
+		void hash(Name name) {
+			final long start = Metrics.ENABLED ? Metrics.start() : 0;
+			name.update(digest);
+			try {
+				digest.digest(bytes, 0, 20);
+			} catch (DigestException e) {
+				throw new Error(e);
+			}
+			if (Metrics.ENABLED)
+				Metrics.record(Metrics.Operation.ID_NAME_HASH, start, 0, 0);
+		}
+
+		UUID uuid(Name name) {
+			hash(name);
+			return new UUID(mostSignificantBits(), leastSignificantBits());
+		}
+
+		// The first 128 bits of the hash, with the version set to 5
+		long mostSignificantBits() {
+			return (bits(0) & ~0xF000L) | 0x5000L;
+		}
+
+		// With the variant set to standard
+		long leastSignificantBits() {
+			return (bits(8) & ~(0xCL << 60)) | (0x8L << 60);
+		}
+
+		private long bits(int i) {
+			long bits = 0;
+			for (final int end = i + 8; i < end; i++)
+				bits = (bits << 8) | (bytes[i] & 0xFF);
+			return bits;
+		}
+
 	}
 
 	public static CharSequence encode(CharSequence in) {
@@ -275,86 +617,225 @@ public abstract class Id {
 	}
 
 	public static void encode(CharSequence in, StringBuilder out) {
-		byte[] bytes = new byte[4];
-		int length = in.length();
-		for (int i = 0; i < length; i++) {
-			// Check whether the character is unreserved according to RFC 3987
-			char c = in.charAt(i);
-			int cc;
-			if ((c >= 'a' && c <= 'z')
-					|| (c >= 'A' && c <= 'Z') // Alpha
-					|| (c >= '0' && c <= '9') // Digit
-					|| c == '-' || c == '.' || c == '_' || c == '~'
-					|| (c >= '\u00A0' && c <= '\uD7FF') // UCS
-					|| (c >= '\uF900' && c <= '\uFDCF') // UCS
-					|| (c >= '\uFDF0' && c <= '\uFFEF') // UCS
-			) { // Is unreserved and is in the Basic Multilingual Plane
-				out.append(c);
-				continue;
-			} else if (c >= Character.MIN_SURROGATE
-					&& c <= Character.MAX_SURROGATE) { // Surrogate
-				if (c > Character.MAX_HIGH_SURROGATE) // If not lead surrogate
-					throw new IllegalArgumentException(
-							"Tail surrogate without lead surrogate");
-				char c2 = in.charAt(++i); // Fetch tail surrogate
-				if (c2 < Character.MIN_LOW_SURROGATE
-						|| c2 > Character.MAX_SURROGATE)
-					throw new IllegalArgumentException("Invalid tail surrogate");
-				cc = Character.MIN_SUPPLEMENTARY_CODE_POINT
-						| ((c - Character.MIN_SURROGATE) << 10)
-						| (c2 - Character.MIN_LOW_SURROGATE);
-				if ((cc >= Character.MIN_SUPPLEMENTARY_CODE_POINT && cc <= 0x1FFFD) // UCS
-						|| (cc >= 0x20000 && cc <= 0x2FFFD) // UCS
-						|| (cc >= 0x30000 && cc <= 0x3FFFD) // UCS
-						|| (cc >= 0x40000 && cc <= 0x4FFFD) // UCS
-						|| (cc >= 0x50000 && cc <= 0x5FFFD) // UCS
-						|| (cc >= 0x60000 && cc <= 0x6FFFD) // UCS
-						|| (cc >= 0x70000 && cc <= 0x7FFFD) // UCS
-						|| (cc >= 0x80000 && cc <= 0x8FFFD) // UCS
-						|| (cc >= 0x90000 && cc <= 0x9FFFD) // UCS
-						|| (cc >= 0xA0000 && cc <= 0xAFFFD) // UCS
-						|| (cc >= 0xB0000 && cc <= 0xBFFFD) // UCS
-						|| (cc >= 0xC0000 && cc <= 0xCFFFD) // UCS
-						|| (cc >= 0xD0000 && cc <= 0xDFFFD) // UCS
-						|| (cc >= 0xE1000 && cc <= 0xEFFFD) // UCS
-				) { // Is unreserved and is in the Supplementary Planes
+		try {
+			encode(in, (Appendable) out);
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+	}
+
+	// Percent-encodes an IRI component, which leaves unreserved characters
+	// (see RFC 3987), including non-ASCII ones, as they are. Runs of them
+	// are appended in one call
+	public static void encode(CharSequence in, Appendable out)
+			throws IOException {
+		final long started = Metrics.ENABLED ? Metrics.start() : 0;
+		final int length = in.length();
+		for (int i = 0; i < length;) {
+			final int start = i;
+			while (i < length && isUnreserved(in.charAt(i)))
+				i++;
+			if (i > start)
+				out.append(in, start, i);
+			if (i == length)
+				break;
+			final char c = in.charAt(i++);
+			if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				final int cc = codePoint(in, c, i++);
+				if (isUnreserved(cc)) {
 					out.append(c);
-					out.append(c2);
-					continue;
-				} // else: Is not unreserved and is in the Supplementary Planes
+					out.append(in.charAt(i - 1));
+				} else
+					percentEncode(cc, out);
 			} else
-				// Is not unreserved and is in the Basic Multilingual Plane
-				cc = c;
-
-			// UTF-8 encode
-			int size;
-			if (cc <= 0x7F) {
-				size = 1;
-				bytes[0] = (byte) cc;
-			} else if (cc <= 0x7FF) {
-				size = 2;
-				bytes[0] = (byte) (0xC0 | (cc >>> 6));
-				bytes[1] = (byte) (0x80 | (cc & 0x3F));
-			} else if (cc <= Character.MAX_VALUE) {
-				size = 3;
-				bytes[0] = (byte) (0xE0 | (cc >>> 12));
-				bytes[1] = (byte) (0x80 | ((cc >>> 6) & 0x3F));
-				bytes[2] = (byte) (0x80 | (cc & 0x3F));
-			} else { // if (cc <= 0x1FFFFF) {
-				size = 4;
-				bytes[0] = (byte) (0xF0 | (cc >>> 18));
-				bytes[1] = (byte) (0x80 | ((cc >>> 12) & 0x3F));
-				bytes[2] = (byte) (0x80 | ((cc >>> 6) & 0x3F));
-				bytes[3] = (byte) (0x80 | (cc & 0x3F));
+				percentEncode(c, out);
+		}
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.ID_ENCODE, started, length, 0);
+	}
+
+	// Percent-encodes a URI component as US-ASCII bytes, which, unlike
+	// encode, also percent-encodes all non-ASCII characters. Returns the
+	// number of bytes written, which is asciiLength(in)
+	public static int encodeAscii(CharSequence in, byte[] out, int offset) {
+		final int size = asciiLength(in);
+		if (offset < 0 || size > out.length - offset)
+			throw new IndexOutOfBoundsException();
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final boolean[] unreserved = UNRESERVED;
+		final int length = in.length();
+		int j = offset;
+		for (int i = 0; i < length;) {
+			char c;
+			while ((c = in.charAt(i)) < 0x80 && unreserved[c]) {
+				out[j++] = (byte) c;
+				if (++i == length)
+					return encoded(start, length, j - offset);
 			}
+			i++;
+			if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+				j = percentEncode(codePoint(in, c, i++), out, j);
+			else
+				j = percentEncode(c, out, j);
+		}
+		return encoded(start, length, j - offset);
+	}
 
-			// Percent encode
-			for (int j = 0; j < size; j++) {
-				out.append('%');
-				out.append(asHexChar((bytes[j] & 0xF0) >>> 4));
-				out.append(asHexChar(bytes[j] & 0xF));
+	public static int encodeAscii(CharSequence in, ByteBuffer out) {
+		final int size = asciiLength(in);
+		if (out.remaining() < size)
+			throw new BufferOverflowException();
+		if (out.hasArray())
+			encodeAscii(in, out.array(), out.arrayOffset() + out.position());
+		else {
+			final long start = Metrics.ENABLED ? Metrics.start() : 0;
+			final byte[] bytes = new byte[12];
+			final boolean[] unreserved = UNRESERVED;
+			final int length = in.length();
+			for (int i = 0; i < length;) {
+				final char c = in.charAt(i++);
+				if (c < 0x80 && unreserved[c])
+					out.put((byte) c);
+				else if (c >= Character.MIN_SURROGATE
+						&& c <= Character.MAX_SURROGATE)
+					out.put(bytes, 0, percentEncode(codePoint(in, c, i++),
+							bytes, 0));
+				else
+					out.put(bytes, 0, percentEncode(c, bytes, 0));
 			}
+			return encoded(start, length, size);
 		}
+		out.position(out.position() + size);
+		return size;
+	}
+
+	private static int encoded(long start, int length, int size) {
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.ID_ENCODE, start, length, 0);
+		return size;
+	}
+
+	// The length of the encodeAscii output
+	public static int asciiLength(CharSequence in) {
+		final boolean[] unreserved = UNRESERVED;
+		final int length = in.length();
+		int size = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = in.charAt(i);
+			if (c < 0x80)
+				size += unreserved[c] ? 1 : 3;
+			else if (c < 0x800)
+				size += 6;
+			else if (c < Character.MIN_SURROGATE
+					|| c > Character.MAX_SURROGATE)
+				size += 9;
+			else
+				size += 6; // Half of a surrogate pair, 4 bytes in total
+		}
+		return size;
+	}
+
+	// Unreserved US-ASCII characters: ALPHA / DIGIT / "-" / "." / "_" / "~"
+	private static final boolean[] UNRESERVED = new boolean[0x80];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++)
+			UNRESERVED[c] = true;
+		for (char c = 'A'; c <= 'Z'; c++)
+			UNRESERVED[c] = true;
+		for (char c = '0'; c <= '9'; c++)
+			UNRESERVED[c] = true;
+		UNRESERVED['-'] = UNRESERVED['.'] = UNRESERVED['_'] = UNRESERVED['~'] = true;
+	}
+
+	// Whether the character is unreserved and is in the Basic Multilingual
+	// Plane (surrogates are not)
+	private static boolean isUnreserved(char c) {
+		if (c < 0x80)
+			return UNRESERVED[c];
+		return (c >= '\u00A0' && c <= '\uD7FF') // UCS
+				|| (c >= '\uF900' && c <= '\uFDCF') // UCS
+				|| (c >= '\uFDF0' && c <= '\uFFEF'); // UCS
+	}
+
+	// Whether the code point is unreserved and is in the Supplementary Planes
+	private static boolean isUnreserved(int cc) {
+		// UCS: all planes up to 0xDFFFD except the last two code points of
+		// each, and 0xE1000-0xEFFFD
+		return (cc & 0xFFFF) <= 0xFFFD && cc <= 0xEFFFD
+				&& (cc < 0xE0000 || cc >= 0xE1000);
+	}
+
+	// Combines the surrogate c with the tail surrogate at index i
+	private static int codePoint(CharSequence in, char c, int i) {
+		if (c > Character.MAX_HIGH_SURROGATE) // If not lead surrogate
+			throw new IllegalArgumentException(
+					"Tail surrogate without lead surrogate");
+		if (i == in.length())
+			throw new IllegalArgumentException(
+					"Lead surrogate without tail surrogate");
+		final char c2 = in.charAt(i); // Fetch tail surrogate
+		if (c2 < Character.MIN_LOW_SURROGATE || c2 > Character.MAX_SURROGATE)
+			throw new IllegalArgumentException("Invalid tail surrogate");
+		return Character.toCodePoint(c, c2);
+	}
+
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5',
+			'6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	// "%00" to "%FF", so that each octet is a single append
+	private static final String[] PERCENT = new String[0x100];
+
+	static {
+		for (int b = 0; b < PERCENT.length; b++)
+			PERCENT[b] = new String(new char[] { '%',
+					(char) HEX_DIGITS[b >>> 4], (char) HEX_DIGITS[b & 0xF] });
+	}
+
+	// UTF-8 encodes and percent encodes the code point
+	private static void percentEncode(int cc, Appendable out)
+			throws IOException {
+		final String[] percent = PERCENT;
+		if (cc <= 0x7F) {
+			out.append(percent[cc]);
+			return;
+		}
+		if (cc <= 0x7FF)
+			out.append(percent[0xC0 | (cc >>> 6)]);
+		else {
+			if (cc <= Character.MAX_VALUE)
+				out.append(percent[0xE0 | (cc >>> 12)]);
+			else { // if (cc <= 0x1FFFFF) {
+				out.append(percent[0xF0 | (cc >>> 18)]);
+				out.append(percent[0x80 | ((cc >>> 12) & 0x3F)]);
+			}
+			out.append(percent[0x80 | ((cc >>> 6) & 0x3F)]);
+		}
+		out.append(percent[0x80 | (cc & 0x3F)]);
+	}
+
+	private static int percentEncode(int cc, byte[] out, int j) {
+		if (cc <= 0x7F)
+			return percent(cc, out, j);
+		if (cc <= 0x7FF)
+			j = percent(0xC0 | (cc >>> 6), out, j);
+		else {
+			if (cc <= Character.MAX_VALUE)
+				j = percent(0xE0 | (cc >>> 12), out, j);
+			else { // if (cc <= 0x1FFFFF) {
+				j = percent(0xF0 | (cc >>> 18), out, j);
+				j = percent(0x80 | ((cc >>> 12) & 0x3F), out, j);
+			}
+			j = percent(0x80 | ((cc >>> 6) & 0x3F), out, j);
+		}
+		return percent(0x80 | (cc & 0x3F), out, j);
+	}
+
+	private static int percent(int b, byte[] out, int j) {
+		out[j] = '%';
+		out[j + 1] = HEX_DIGITS[b >>> 4];
+		out[j + 2] = HEX_DIGITS[b & 0xF];
+		return j + 3;
 	}
 
 	public static String decode(String in) {
@@ -363,153 +844,155 @@ public abstract class Id {
 		return out.toString();
 	}
 
-	private static final char REPLACEMENT_CHARACTER = '\uFFFD';
-
 	public static void decode(CharSequence in, StringBuilder out) {
-		final int length = in.length();
-		int octets = 0, remaining = 0, codepoint = 0;
-		char c;
-		int b;
-		for (int i = 0; i < length; i++)
-			switch (c = in.charAt(i)) {
-			case '%':
-				if (length - i < 3) {
-					out.append(REPLACEMENT_CHARACTER);
-					return;
-				}
-				try {
-					b = (asHexByte(in.charAt(++i)) << 4)
-							| asHexByte(in.charAt(++i));
-				} catch (IllegalArgumentException e) {
-					out.append(REPLACEMENT_CHARACTER);
-					remaining = 0;
-					continue;
-				}
-				if (remaining == 0) {
-					if ((b >>> 7) == 0) // 0xxxxxxx, 7 bits
-						out.append((char) b);
-					else if ((b >>> 5) == 0x6) { // 110xxxxx, 11 bits
-						remaining = (octets = 2) - 1;
-						codepoint = (b & 0x1F) << 6;
-					} else if ((b >>> 4) == 0xE) { // 1110xxxx, 16 bits
-						remaining = (octets = 3) - 1;
-						codepoint = (b & 0xF) << 12;
-					} else if ((b >>> 3) == 0x1E) { // 11110xxx, 21 bits
-						remaining = (octets = 4) - 1;
-						codepoint = (b & 0x7) << 18;
-					} else if ((b >>> 2) == 0x3E) { // 111110xx, 26 bits
-						// Overlong for any code point, but try to process the
-						// whole sequence which will then be replaced
-						remaining = (octets = 5) - 1;
-						codepoint = (b & 0x3) << 24;
-					} else if ((b >>> 1) == 0x7E) { // 1111110x, 31 bits
-						// Overlong for any code point, but try to process the
-						// whole sequence which will then be replaced
-						remaining = (octets = 6) - 1;
-						codepoint = (b & 0x1) << 30;
-					} else
-						out.append(REPLACEMENT_CHARACTER);
-				} else if ((b >>> 6) == 0x2) { // 10xxxxxx
-					codepoint |= (b & 0x3F) << (6 * --remaining);
-					if (remaining == 0) {
-						if (codepoint <= 0x7F // octets > 1
-								|| (codepoint <= 0x7FF && octets > 2)
-								|| (codepoint <= Character.MAX_VALUE && octets > 3)
-								|| (codepoint <= Character.MAX_CODE_POINT && octets > 4))
-							// Overlong sequence (see RFC 3629)
-							out.append(REPLACEMENT_CHARACTER);
-						else if (codepoint < Character.MIN_SURROGATE)
-							// Basic Multilingual Plane below surrogates
-							out.append((char) codepoint);
-						else if (codepoint <= Character.MAX_VALUE) {
-							if (codepoint > Character.MAX_SURROGATE)
-								// Basic Multilingual Plane above surrogates
-								out.append((char) codepoint);
-							else
-								// Is a surrogate and to be regarded as an error
-								out.append(REPLACEMENT_CHARACTER);
-						} else if (codepoint <= Character.MAX_CODE_POINT) {
-							// In the Supplementary Planes
-							// Two UTF-16 code points are required
-							codepoint -= Character.MIN_SUPPLEMENTARY_CODE_POINT;
-							out.append((char) (Character.MIN_SURROGATE + (codepoint >>> 10)));
-							out.append((char) (Character.MIN_LOW_SURROGATE + (codepoint & 0x3FF)));
-						} else
-							// Invalid codepoint > max
-							out.append(REPLACEMENT_CHARACTER);
-					}
-				} else {
-					out.append(REPLACEMENT_CHARACTER);
-					remaining = 0;
-				}
-				break;
-			case '+':
-				out.append(' ');
-				break;
-			default:
-				out.append(c);
-			}
-		if (remaining > 0) // If the last sequence was not completed
-			out.append(REPLACEMENT_CHARACTER);
+		decodeCounting(in, out);
 	}
 
-	public static Id valueOf(final UUID id) {
-		return new Id() {
-			@Override
-			public UUID toUuid() {
-				return id;
-			}
+	// Returns the number of replacement characters substituted for
+	// malformed input
+	public static int decodeCounting(CharSequence in, StringBuilder out) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final PercentDecoder decoder = new PercentDecoder();
+		decoder.decode(in, out);
+		decoder.finish(out);
+		return decoded(start, in.length(), decoder);
+	}
 
-			@Override
-			public char[] toCharArray() {
-				return asCharArray(id);
-			}
+	// Decodes straight to UTF-8 bytes, which are those of the decode output
+	// except that unpaired surrogates in the input are also replaced.
+	// Returns the number of replacement characters; if the buffer is too
+	// small, a BufferOverflowException is thrown once it is full
+	public static int decodeUtf8(CharSequence in, ByteBuffer out) {
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final PercentDecoder decoder = new PercentDecoder();
+		decoder.decode(in, out);
+		decoder.finish(null, out);
+		return decoded(start, in.length(), decoder);
+	}
 
-			@Override
-			public byte[] toByteArray() {
-				return asByteArray(id);
-			}
-		};
+	private static int decoded(long start, int length, PercentDecoder decoder) {
+		final long replacements = decoder.replacements();
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.ID_DECODE, start, length,
+					replacements);
+		return (int) replacements;
+	}
+
+	public static Id valueOf(UUID id) {
+		return new Value(id.getMostSignificantBits(),
+				id.getLeastSignificantBits(), null);
+	}
+
+	public static Id valueOf(long mostSignificantBits,
+			long leastSignificantBits) {
+		return new Value(mostSignificantBits, leastSignificantBits, null);
 	}
 
 	public static Id valueOf(byte[] id) {
-		final UUID uuid = asUuid(id);
-		return new Id() {
-			@Override
-			public UUID toUuid() {
-				return uuid;
-			}
-		};
+		long m = 0, l = 0;
+		for (int i = 0; i < 8; i++) {
+			m = (m << 8) | (id[i] & 0xFF);
+			l = (l << 8) | (id[i + 8] & 0xFF);
+		}
+		return new Value(m, l, null);
 	}
 
 	public static Id valueOf(CharSequence id) {
-		final UUID uuid = asUuid(id);
-		return new Id() {
-			@Override
-			public UUID toUuid() {
-				return uuid;
-			}
-		};
+		final long[] bits = new long[2];
+		if (!parse(id, 0, id.length(), bits, 0))
+			throw unrecognized();
+		return new Value(bits[0], bits[1], null);
 	}
 
-	public static Id valueOf(final URI id) {
+	public static Id valueOf(URI id) {
 		final UUID uuid = asUuid(id);
-		return new Id() {
-			@Override
-			public UUID toUuid() {
-				return uuid;
+		return new Value(uuid.getMostSignificantBits(),
+				uuid.getLeastSignificantBits(), id);
+	}
+
+	// Holds the 128 bits directly; the compact string and URI forms are
+	// computed on first use. String is immutable, so a racy publication of
+	// the string is safe, whereas URI is published through a volatile field
+	private static final class Value extends Id {
+
+		private final long m, l;
+
+		private String string;
+
+		private volatile URI uri;
+
+		Value(long m, long l, URI uri) {
+			this.m = m;
+			this.l = l;
+			this.uri = uri;
+		}
+
+		@Override
+		public long getMostSignificantBits() {
+			return m;
+		}
+
+		@Override
+		public long getLeastSignificantBits() {
+			return l;
+		}
+
+		@Override
+		public UUID toUuid() {
+			return new UUID(m, l);
+		}
+
+		@Override
+		public char[] toCharArray() {
+			return toString().toCharArray();
+		}
+
+		@Override
+		public byte[] toByteArray() {
+			final byte[] bytes = new byte[16];
+			for (int i = 0; i < 8; i++) {
+				bytes[i] = (byte) (m >>> (56 - 8 * i));
+				bytes[i + 8] = (byte) (l >>> (56 - 8 * i));
 			}
+			return bytes;
+		}
 
-			@Override
-			public URI toUri() {
-				return id;
+		@Override
+		public URI toUri() {
+			URI uri = this.uri;
+			if (uri == null)
+				this.uri = uri = asUri(toUuid());
+			return uri;
+		}
+
+		@Override
+		public String toString() {
+			String string = this.string;
+			if (string == null) {
+				if (isStandard(l)) {
+					final long start = Metrics.ENABLED ? Metrics.start() : 0;
+					final char[] chars = new char[21];
+					encode(m, l, chars, 0);
+					string = new String(chars);
+					if (Metrics.ENABLED)
+						Metrics.record(Metrics.Operation.ID_FORMAT, start, 21,
+								0);
+				} else
+					string = Binary.asString(toByteArray());
+				this.string = string;
 			}
-		};
+			return string;
+		}
+
 	}
 
 	private Id() {
 	}
 
+	public abstract long getMostSignificantBits();
+
+	public abstract long getLeastSignificantBits();
+
 	public abstract UUID toUuid();
 
 	public char[] toCharArray() {
@@ -524,6 +1007,51 @@ public abstract class Id {
 		return asUri(toUuid());
 	}
 
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Id))
+			return false;
+		final Id other = (Id) obj;
+		return getMostSignificantBits() == other.getMostSignificantBits()
+				&& getLeastSignificantBits() == other
+						.getLeastSignificantBits();
+	}
+
+	@Override
+	public int hashCode() {
+		// Mixes all 128 bits (see the MurmurHash3 finalizer), unlike
+		// UUID.hashCode, which only folds the halves together
+		final long h = mix(getMostSignificantBits()
+				^ mix(getLeastSignificantBits()));
+		return (int) (h ^ (h >>> 32));
+	}
+
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	// Orders IDs as unsigned 128-bit values, which is the byte order of
+	// toByteArray (unlike UUID.compareTo, which compares signed halves)
+	@Override
+	public int compareTo(Id other) {
+		final int c = compareUnsigned(getMostSignificantBits(),
+				other.getMostSignificantBits());
+		return c != 0 ? c : compareUnsigned(getLeastSignificantBits(),
+				other.getLeastSignificantBits());
+	}
+
+	private static int compareUnsigned(long a, long b) {
+		a ^= Long.MIN_VALUE;
+		b ^= Long.MIN_VALUE;
+		return a < b ? -1 : a == b ? 0 : 1;
+	}
+
 	@Override
 	public String toString() {
 		return asString(toUuid());
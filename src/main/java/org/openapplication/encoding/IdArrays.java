@@ -0,0 +1,322 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Converts many IDs per call without creating UUID objects. IDs are given
+// either as parallel columns, where ID i is msb[offset + i] and
+// lsb[offset + i], or packed, where ID i is ids[offset + 2 * i] and
+// ids[offset + 2 * i + 1]. Text records are fixed-width 21 digit compact
+// forms (see Id.asCharArray), so only standard variant IDs can be encoded
+// as text; binary records are 16 bytes, most significant byte first.
+public final class IdArrays {
+
+	public static final int CHARS = 21;
+
+	public static final int BYTES = 16;
+
+	public static int asCharArray(long[] msb, long[] lsb, int offset,
+			int count, char[] out, int outOffset) {
+		checkColumns(msb, lsb, offset, count);
+		checkBounds(out.length, outOffset, (long) count * CHARS);
+		return encode(msb, offset, lsb, offset, 1, count, out, outOffset);
+	}
+
+	public static int asCharArray(long[] ids, int offset, int count,
+			char[] out, int outOffset) {
+		checkBounds(ids.length, offset, 2L * count);
+		checkBounds(out.length, outOffset, (long) count * CHARS);
+		return encode(ids, offset, ids, offset + 1, 2, count, out, outOffset);
+	}
+
+	public static int asAsciiArray(long[] msb, long[] lsb, int offset,
+			int count, byte[] out, int outOffset) {
+		checkColumns(msb, lsb, offset, count);
+		checkBounds(out.length, outOffset, (long) count * CHARS);
+		return encode(msb, offset, lsb, offset, 1, count, out, outOffset);
+	}
+
+	public static int asAsciiArray(long[] ids, int offset, int count,
+			byte[] out, int outOffset) {
+		checkBounds(ids.length, offset, 2L * count);
+		checkBounds(out.length, outOffset, (long) count * CHARS);
+		return encode(ids, offset, ids, offset + 1, 2, count, out, outOffset);
+	}
+
+	public static int asAsciiBuffer(long[] msb, long[] lsb, int offset,
+			int count, ByteBuffer out) {
+		checkColumns(msb, lsb, offset, count);
+		return encode(msb, offset, lsb, offset, 1, count, out);
+	}
+
+	public static int asAsciiBuffer(long[] ids, int offset, int count,
+			ByteBuffer out) {
+		checkBounds(ids.length, offset, 2L * count);
+		return encode(ids, offset, ids, offset + 1, 2, count, out);
+	}
+
+	public static int asByteArray(long[] msb, long[] lsb, int offset,
+			int count, byte[] out, int outOffset) {
+		checkColumns(msb, lsb, offset, count);
+		checkBounds(out.length, outOffset, (long) count * BYTES);
+		return write(msb, offset, lsb, offset, 1, count, out, outOffset);
+	}
+
+	public static int asByteArray(long[] ids, int offset, int count,
+			byte[] out, int outOffset) {
+		checkBounds(ids.length, offset, 2L * count);
+		checkBounds(out.length, outOffset, (long) count * BYTES);
+		return write(ids, offset, ids, offset + 1, 2, count, out, outOffset);
+	}
+
+	public static int asByteBuffer(long[] msb, long[] lsb, int offset,
+			int count, ByteBuffer out) {
+		checkColumns(msb, lsb, offset, count);
+		return write(msb, offset, lsb, offset, 1, count, out);
+	}
+
+	public static int asByteBuffer(long[] ids, int offset, int count,
+			ByteBuffer out) {
+		checkBounds(ids.length, offset, 2L * count);
+		return write(ids, offset, ids, offset + 1, 2, count, out);
+	}
+
+	// The parse methods return the number of IDs decoded, which is less than
+	// count if a record is not a recognized compact form; the IDs before it
+	// have been stored, and buffers are advanced past them only
+
+	public static int parseCharArray(char[] in, int inOffset, int count,
+			long[] msb, long[] lsb, int offset) {
+		checkBounds(in.length, inOffset, (long) count * CHARS);
+		checkColumns(msb, lsb, offset, count);
+		final long[] bits = new long[2];
+		for (int i = 0; i < count; i++) {
+			if (!Id.tryParse(in, inOffset + i * CHARS, CHARS, bits, 0))
+				return i;
+			msb[offset + i] = bits[0];
+			lsb[offset + i] = bits[1];
+		}
+		return count;
+	}
+
+	public static int parseCharArray(char[] in, int inOffset, int count,
+			long[] ids, int offset) {
+		checkBounds(in.length, inOffset, (long) count * CHARS);
+		checkBounds(ids.length, offset, 2L * count);
+		for (int i = 0; i < count; i++)
+			if (!Id.tryParse(in, inOffset + i * CHARS, CHARS, ids, offset
+					+ 2 * i))
+				return i;
+		return count;
+	}
+
+	public static int parseAsciiArray(byte[] in, int inOffset, int count,
+			long[] msb, long[] lsb, int offset) {
+		checkBounds(in.length, inOffset, (long) count * CHARS);
+		checkColumns(msb, lsb, offset, count);
+		return parse(ByteBuffer.wrap(in), inOffset, count, msb, offset, lsb,
+				offset, 1);
+	}
+
+	public static int parseAsciiArray(byte[] in, int inOffset, int count,
+			long[] ids, int offset) {
+		checkBounds(in.length, inOffset, (long) count * CHARS);
+		checkBounds(ids.length, offset, 2L * count);
+		return parse(ByteBuffer.wrap(in), inOffset, count, ids, offset, ids,
+				offset + 1, 2);
+	}
+
+	public static int parseAsciiBuffer(ByteBuffer in, int count, long[] msb,
+			long[] lsb, int offset) {
+		checkColumns(msb, lsb, offset, count);
+		return parse(in, count, msb, offset, lsb, offset, 1);
+	}
+
+	public static int parseAsciiBuffer(ByteBuffer in, int count, long[] ids,
+			int offset) {
+		checkBounds(ids.length, offset, 2L * count);
+		return parse(in, count, ids, offset, ids, offset + 1, 2);
+	}
+
+	public static int readByteArray(byte[] in, int inOffset, int count,
+			long[] msb, long[] lsb, int offset) {
+		checkBounds(in.length, inOffset, (long) count * BYTES);
+		checkColumns(msb, lsb, offset, count);
+		return read(in, inOffset, count, msb, offset, lsb, offset, 1);
+	}
+
+	public static int readByteArray(byte[] in, int inOffset, int count,
+			long[] ids, int offset) {
+		checkBounds(in.length, inOffset, (long) count * BYTES);
+		checkBounds(ids.length, offset, 2L * count);
+		return read(in, inOffset, count, ids, offset, ids, offset + 1, 2);
+	}
+
+	public static int readByteBuffer(ByteBuffer in, int count, long[] msb,
+			long[] lsb, int offset) {
+		checkColumns(msb, lsb, offset, count);
+		return read(in, count, msb, offset, lsb, offset, 1);
+	}
+
+	public static int readByteBuffer(ByteBuffer in, int count, long[] ids,
+			int offset) {
+		checkBounds(ids.length, offset, 2L * count);
+		return read(in, count, ids, offset, ids, offset + 1, 2);
+	}
+
+	// The most significant bits of ID i are m[mi + i * stride] and the least
+	// significant bits are l[li + i * stride], which covers both columns
+	// (stride 1) and packed pairs (stride 2)
+
+	private static int encode(long[] m, int mi, long[] l, int li, int stride,
+			int count, char[] out, int j) {
+		for (int i = 0; i < count; i++, mi += stride, li += stride, j += CHARS)
+			Id.encode(m[mi], standard(l[li]), out, j);
+		return count * CHARS;
+	}
+
+	private static int encode(long[] m, int mi, long[] l, int li, int stride,
+			int count, byte[] out, int j) {
+		for (int i = 0; i < count; i++, mi += stride, li += stride, j += CHARS)
+			Id.encode(m[mi], standard(l[li]), out, j);
+		return count * CHARS;
+	}
+
+	private static int encode(long[] m, int mi, long[] l, int li, int stride,
+			int count, ByteBuffer out) {
+		final int size = count * CHARS;
+		if (out.remaining() < size)
+			throw new BufferOverflowException();
+		int j = out.position();
+		if (out.hasArray())
+			encode(m, mi, l, li, stride, count, out.array(), out.arrayOffset()
+					+ j);
+		else
+			for (int i = 0; i < count; i++, mi += stride, li += stride, j += CHARS)
+				Id.encode(m[mi], standard(l[li]), out, j);
+		out.position(out.position() + size);
+		return size;
+	}
+
+	private static long standard(long l) {
+		if (!Id.isStandard(l))
+			throw new IllegalArgumentException(
+					"The UUID variant isn't standard");
+		return l;
+	}
+
+	private static int write(long[] m, int mi, long[] l, int li, int stride,
+			int count, byte[] out, int j) {
+		for (int i = 0; i < count; i++, mi += stride, li += stride) {
+			j = write(m[mi], out, j);
+			j = write(l[li], out, j);
+		}
+		return count * BYTES;
+	}
+
+	private static int write(long bits, byte[] out, int j) {
+		for (int shift = 56; shift >= 0; shift -= 8)
+			out[j++] = (byte) (bits >>> shift);
+		return j;
+	}
+
+	private static int write(long[] m, int mi, long[] l, int li, int stride,
+			int count, ByteBuffer out) {
+		final int size = count * BYTES;
+		if (out.remaining() < size)
+			throw new BufferOverflowException();
+		final boolean swap = out.order() != ByteOrder.BIG_ENDIAN;
+		int j = out.position();
+		for (int i = 0; i < count; i++, mi += stride, li += stride, j += BYTES) {
+			out.putLong(j, swap ? Long.reverseBytes(m[mi]) : m[mi]);
+			out.putLong(j + 8, swap ? Long.reverseBytes(l[li]) : l[li]);
+		}
+		out.position(j);
+		return size;
+	}
+
+	private static int parse(ByteBuffer in, int count, long[] m, int mi,
+			long[] l, int li, int stride) {
+		if (in.remaining() / CHARS < count)
+			throw new BufferUnderflowException();
+		final int n = parse(in, in.position(), count, m, mi, l, li, stride);
+		in.position(in.position() + n * CHARS);
+		return n;
+	}
+
+	private static int parse(ByteBuffer in, int j, int count, long[] m,
+			int mi, long[] l, int li, int stride) {
+		final long[] bits = new long[2];
+		for (int i = 0; i < count; i++, mi += stride, li += stride, j += CHARS) {
+			if (!Id.parse(in, j, CHARS, bits, 0))
+				return i;
+			m[mi] = bits[0];
+			l[li] = bits[1];
+		}
+		return count;
+	}
+
+	private static int read(byte[] in, int j, int count, long[] m, int mi,
+			long[] l, int li, int stride) {
+		for (int i = 0; i < count; i++, mi += stride, li += stride) {
+			m[mi] = read(in, j);
+			l[li] = read(in, j + 8);
+			j += BYTES;
+		}
+		return count;
+	}
+
+	private static long read(byte[] in, int j) {
+		long bits = 0;
+		for (final int end = j + 8; j < end; j++)
+			bits = (bits << 8) | (in[j] & 0xFF);
+		return bits;
+	}
+
+	private static int read(ByteBuffer in, int count, long[] m, int mi,
+			long[] l, int li, int stride) {
+		if (in.remaining() / BYTES < count)
+			throw new BufferUnderflowException();
+		final boolean swap = in.order() != ByteOrder.BIG_ENDIAN;
+		int j = in.position();
+		for (int i = 0; i < count; i++, mi += stride, li += stride, j += BYTES) {
+			final long mm = in.getLong(j), ll = in.getLong(j + 8);
+			m[mi] = swap ? Long.reverseBytes(mm) : mm;
+			l[li] = swap ? Long.reverseBytes(ll) : ll;
+		}
+		in.position(j);
+		return count;
+	}
+
+	private static void checkColumns(long[] msb, long[] lsb, int offset,
+			int count) {
+		checkBounds(msb.length, offset, count);
+		checkBounds(lsb.length, offset, count);
+	}
+
+	private static void checkBounds(int size, int offset, long length) {
+		if ((offset | length) < 0 || length > size - offset)
+			throw new IndexOutOfBoundsException();
+	}
+
+	private IdArrays() {
+	}
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A size-bounded cache of name-based (version 5) IDs in one namespace. The
+// cache is split into segments, each with its own lock, so threads only
+// contend when their names hash to the same segment. Each segment evicts
+// either its least recently used (LRU) or its oldest (FIFO) entry; FIFO
+// avoids reordering on every hit. Names are hashed as UTF-8, which is what
+// Id.asUuid(URI) does for URIs in the URL namespace (see forUris).
+public final class IdCache {
+
+	public enum Eviction {
+		LRU, FIFO
+	}
+
+	public static IdCache forUris(int maximumSize) {
+		return new IdCache(Id.NS_URI, maximumSize, Eviction.LRU, 16);
+	}
+
+	private final Id.Namespace namespace;
+
+	private final Segment[] segments;
+
+	public IdCache(Id.Namespace namespace, int maximumSize) {
+		this(namespace, maximumSize, Eviction.LRU, 16);
+	}
+
+	public IdCache(Id.Namespace namespace, int maximumSize,
+			Eviction eviction, int concurrency) {
+		if (maximumSize < 1 || concurrency < 1)
+			throw new IllegalArgumentException(
+					"Maximum size and concurrency must be positive");
+		this.namespace = namespace;
+		int n = 1;
+		while (n < concurrency && n * 2 <= maximumSize)
+			n <<= 1;
+		segments = new Segment[n];
+		for (int i = 0; i < n; i++)
+			segments[i] = new Segment(eviction, (maximumSize + i) / n);
+	}
+
+	public Id.Namespace namespace() {
+		return namespace;
+	}
+
+	// URIs of the form urn:uuid:... are parsed rather than hashed, and are
+	// not cached
+	public Id get(URI uri) {
+		if (uri.isOpaque() && "urn".equals(uri.getScheme())
+				&& uri.getSchemeSpecificPart().startsWith("uuid:"))
+			return Id.valueOf(uri);
+		return get(uri.toString());
+	}
+
+	public Id get(CharSequence name) {
+		final String key = name.toString();
+		final int h = key.hashCode();
+		final Segment segment = segments[(h ^ (h >>> 16))
+				& (segments.length - 1)];
+		Id id = segment.find(key);
+		if (id == null) {
+			// Hashes outside the lock; threads that miss on the same name
+			// at the same time derive the same ID
+			final long[] bits = new long[2];
+			namespace.asUuid(new Id.Name() {
+				@Override
+				public void update(MessageDigest digest) {
+					digest.update(Text.asByteBuffer(key));
+				}
+			}, bits, 0);
+			id = segment.add(key, Id.valueOf(bits[0], bits[1]));
+		}
+		return id;
+	}
+
+	public long hits() {
+		long hits = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		return hits;
+	}
+
+	public long misses() {
+		long misses = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		return misses;
+	}
+
+	public long evictions() {
+		long evictions = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		return evictions;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				size += segment.size();
+			}
+		return size;
+	}
+
+	public void clear() {
+		for (Segment segment : segments)
+			synchronized (segment) {
+				segment.clear();
+			}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class Segment extends LinkedHashMap<String, Id> {
+
+		private final int capacity;
+
+		long hits, misses, evictions;
+
+		Segment(Eviction eviction, int capacity) {
+			super(16, 0.75f, eviction == Eviction.LRU);
+			this.capacity = capacity;
+		}
+
+		synchronized Id find(String key) {
+			final Id id = super.get(key);
+			if (id != null)
+				hits++;
+			else
+				misses++;
+			return id;
+		}
+
+		// Returns the ID already in the segment, if another thread added it
+		// in the meantime
+		synchronized Id add(String key, Id id) {
+			final Id existing = super.get(key);
+			if (existing != null)
+				return existing;
+			super.put(key, id);
+			return id;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Id> eldest) {
+			if (size() <= capacity)
+				return false;
+			evictions++;
+			return true;
+		}
+
+	}
+
+}
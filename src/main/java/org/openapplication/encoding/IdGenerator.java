@@ -0,0 +1,190 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+// Generates time-ordered IDs in the layout of version 7 UUIDs (RFC 9562):
+// 48 bits of Unix time in milliseconds, the version, a 12 bit sequence and,
+// after the standard variant, 62 random bits. As the variant is standard,
+// every ID has the 21 digit compact form (see Id.asCharArray). Each thread
+// has its own sequence, so generating takes no locks: the IDs of a thread
+// are strictly increasing, and when the sequence runs out within a
+// millisecond, the timestamp is moved forward instead of waiting for the
+// clock. The random bits are as unpredictable as those of
+// UUID.randomUUID: each thread has a SecureRandom of its own, which fills a
+// block of random bits for BLOCK IDs at a time, so that SecureRandom is
+// called, and its lock taken, only once per block.
+public final class IdGenerator {
+
+	private static final int BLOCK = 64;
+
+	private final ThreadLocal<State> states = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	public Id next() {
+		final State state = next(1);
+		return Id.valueOf(state.m, state.l);
+	}
+
+	// The batch methods take the clock and the thread's state once for all
+	// the IDs. IDs are packed or in columns as in IdArrays
+
+	public void next(long[] msb, long[] lsb, int offset, int count) {
+		checkBounds(msb.length, offset, count);
+		checkBounds(lsb.length, offset, count);
+		final State state = next(0);
+		for (int i = offset, end = offset + count; i < end; i++) {
+			state.next();
+			msb[i] = state.m;
+			lsb[i] = state.l;
+		}
+	}
+
+	public void next(long[] ids, int offset, int count) {
+		checkBounds(ids.length, offset, 2L * count);
+		final State state = next(0);
+		for (int i = offset, end = offset + 2 * count; i < end; i += 2) {
+			state.next();
+			ids[i] = state.m;
+			ids[i + 1] = state.l;
+		}
+	}
+
+	// Writes compact forms directly, without creating Id or UUID objects, and
+	// returns the number of chars or bytes written
+
+	public int nextCharArray(int count, char[] out, int outOffset) {
+		checkBounds(out.length, outOffset, (long) count * IdArrays.CHARS);
+		final State state = next(0);
+		for (int i = 0, j = outOffset; i < count; i++, j += IdArrays.CHARS) {
+			state.next();
+			Id.encode(state.m, state.l, out, j);
+		}
+		return count * IdArrays.CHARS;
+	}
+
+	public int nextAsciiArray(int count, byte[] out, int outOffset) {
+		checkBounds(out.length, outOffset, (long) count * IdArrays.CHARS);
+		final State state = next(0);
+		for (int i = 0, j = outOffset; i < count; i++, j += IdArrays.CHARS) {
+			state.next();
+			Id.encode(state.m, state.l, out, j);
+		}
+		return count * IdArrays.CHARS;
+	}
+
+	public int nextAsciiBuffer(int count, ByteBuffer out) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative count");
+		if (out.remaining() / IdArrays.CHARS < count)
+			throw new BufferOverflowException();
+		final int size = count * IdArrays.CHARS;
+		if (out.hasArray())
+			nextAsciiArray(count, out.array(),
+					out.arrayOffset() + out.position());
+		else {
+			final State state = next(0);
+			for (int i = 0, j = out.position(); i < count; i++, j += IdArrays.CHARS) {
+				state.next();
+				Id.encode(state.m, state.l, out, j);
+			}
+		}
+		out.position(out.position() + size);
+		return size;
+	}
+
+	// Takes the thread's state at the current time, advanced by n IDs
+	private State next(int n) {
+		final State state = states.get();
+		state.time(System.currentTimeMillis());
+		for (int i = 0; i < n; i++)
+			state.next();
+		return state;
+	}
+
+	// The Unix time in milliseconds of an ID from a generator
+	public static long timestamp(Id id) {
+		return id.getMostSignificantBits() >>> 16;
+	}
+
+	// The least ID that a generator can give for a millisecond, which bounds
+	// a range of IDs by time
+	public static Id first(long millis) {
+		if (millis < 0 || millis >>> 48 != 0)
+			throw new IllegalArgumentException("Time out of range");
+		return Id.valueOf(millis << 16 | 0x7000, 0x8000000000000000L);
+	}
+
+	private static final class State {
+
+		long millis = -1;
+
+		int sequence;
+
+		final SecureRandom random = new SecureRandom();
+
+		final byte[] block = new byte[8 * BLOCK];
+
+		int next = block.length; // The next unused byte of the block
+
+		long m, l; // The last ID
+
+		// Moves to the clock unless it has gone back or the sequence has
+		// moved ahead of it. A new millisecond starts the sequence at a random
+		// value below 2048, leaving room for at least 2048 IDs
+		void time(long now) {
+			if (now > millis) {
+				millis = now;
+				sequence = (int) random() & 0x7FF;
+				sequence--; // The next ID takes the start value
+			}
+		}
+
+		void next() {
+			if (++sequence > 0xFFF) {
+				millis++;
+				sequence = 0;
+			}
+			m = millis << 16 | 0x7000 | sequence;
+			l = 0x8000000000000000L | random() >>> 2;
+		}
+
+		private long random() {
+			if (next == block.length) {
+				random.nextBytes(block);
+				next = 0;
+			}
+			long bits = 0;
+			for (final int end = next + 8; next < end; next++)
+				bits = (bits << 8) | (block[next] & 0xFF);
+			return bits;
+		}
+
+	}
+
+	private static void checkBounds(int size, int offset, long length) {
+		if ((offset | length) < 0 || length > size - offset)
+			throw new IndexOutOfBoundsException();
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.UUID;
+
+public class IdIntMap extends IdTable {
+
+	private final int noValue;
+
+	// Values are kept apart from the IDs, indexed by slot, so that each takes
+	// 4 bytes instead of a long of the slot: in an int[], or off-heap in a
+	// direct IntBuffer for a direct map. No initializers, as the table
+	// constructor allocates them (see IdTable.resize)
+	private int[] values, previous;
+
+	private IntBuffer buffer, previousBuffer;
+
+	public IdIntMap() {
+		this(0, false, 0);
+	}
+
+	public IdIntMap(int expectedSize) {
+		this(expectedSize, false, 0);
+	}
+
+	// A direct map keeps its table off-heap, in a direct ByteBuffer; get
+	// returns noValue for IDs that are not in the map
+	public IdIntMap(int expectedSize, boolean direct, int noValue) {
+		super(2, expectedSize, direct);
+		this.noValue = noValue;
+	}
+
+	public int noValue() {
+		return noValue;
+	}
+
+	public int get(long mostSignificantBits, long leastSignificantBits) {
+		return get(find(mostSignificantBits, leastSignificantBits));
+	}
+
+	public int get(Id id) {
+		return get(find(id));
+	}
+
+	public int get(UUID id) {
+		return get(find(id));
+	}
+
+	public int get(byte[] id) {
+		return get(find(id));
+	}
+
+	public int get(CharSequence id) {
+		return get(find(id));
+	}
+
+	private int get(int slot) {
+		return slot < 0 ? noValue : load(slot);
+	}
+
+	public int put(long mostSignificantBits, long leastSignificantBits,
+			int value) {
+		final int slot = insert(mostSignificantBits, leastSignificantBits);
+		if (slot < 0) {
+			store(-1 - slot, value);
+			return noValue;
+		}
+		final int previous = load(slot);
+		store(slot, value);
+		return previous;
+	}
+
+	public int put(Id id, int value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+				value);
+	}
+
+	public int put(UUID id, int value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+				value);
+	}
+
+	public int remove(long mostSignificantBits, long leastSignificantBits) {
+		final int slot = find(mostSignificantBits, leastSignificantBits);
+		if (slot < 0)
+			return noValue;
+		final int previous = load(slot);
+		delete(slot);
+		return previous;
+	}
+
+	public int remove(Id id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	public int remove(UUID id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	private int load(int slot) {
+		return values != null ? values[slot] : buffer.get(slot);
+	}
+
+	private void store(int slot, int value) {
+		if (values != null)
+			values[slot] = value;
+		else
+			buffer.put(slot, value);
+	}
+
+	@Override
+	void resize(int slots) {
+		previous = values;
+		previousBuffer = buffer;
+		if (isDirect()) {
+			values = null;
+			buffer = ByteBuffer.allocateDirect(slots * 4)
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+		} else {
+			values = new int[slots];
+			buffer = null;
+		}
+	}
+
+	@Override
+	void transfer(int from, int to) {
+		store(to, previous != null ? previous[from] : previousBuffer.get(from));
+	}
+
+	@Override
+	void resized() {
+		previous = null;
+		previousBuffer = null;
+	}
+
+	@Override
+	void shift(int from, int to) {
+		store(to, load(from));
+	}
+
+}
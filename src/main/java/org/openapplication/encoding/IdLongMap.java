@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.util.UUID;
+
+public class IdLongMap extends IdTable {
+
+	private final long noValue;
+
+	public IdLongMap() {
+		this(0, false, 0);
+	}
+
+	public IdLongMap(int expectedSize) {
+		this(expectedSize, false, 0);
+	}
+
+	// A direct map keeps its table off-heap, in a direct ByteBuffer; get
+	// returns noValue for IDs that are not in the map
+	public IdLongMap(int expectedSize, boolean direct, long noValue) {
+		super(3, expectedSize, direct);
+		this.noValue = noValue;
+	}
+
+	public long noValue() {
+		return noValue;
+	}
+
+	public long get(long mostSignificantBits, long leastSignificantBits) {
+		return get(find(mostSignificantBits, leastSignificantBits));
+	}
+
+	public long get(Id id) {
+		return get(find(id));
+	}
+
+	public long get(UUID id) {
+		return get(find(id));
+	}
+
+	public long get(byte[] id) {
+		return get(find(id));
+	}
+
+	public long get(CharSequence id) {
+		return get(find(id));
+	}
+
+	private long get(int slot) {
+		return slot < 0 ? noValue : value(slot);
+	}
+
+	public long put(long mostSignificantBits, long leastSignificantBits,
+			long value) {
+		final int slot = insert(mostSignificantBits, leastSignificantBits);
+		if (slot < 0) {
+			value(-1 - slot, value);
+			return noValue;
+		}
+		final long previous = value(slot);
+		value(slot, value);
+		return previous;
+	}
+
+	public long put(Id id, long value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+				value);
+	}
+
+	public long put(UUID id, long value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+				value);
+	}
+
+	public long remove(long mostSignificantBits, long leastSignificantBits) {
+		final int slot = find(mostSignificantBits, leastSignificantBits);
+		if (slot < 0)
+			return noValue;
+		final long previous = value(slot);
+		delete(slot);
+		return previous;
+	}
+
+	public long remove(Id id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	public long remove(UUID id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+}
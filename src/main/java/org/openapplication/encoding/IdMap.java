@@ -0,0 +1,128 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.util.UUID;
+
+public class IdMap<V> extends IdTable {
+
+	// Values are kept on-heap, indexed by slot; no initializer, as the
+	// table constructor allocates them (see IdTable.resize)
+	private Object[] values, previous;
+
+	public IdMap() {
+		this(0, false);
+	}
+
+	public IdMap(int expectedSize) {
+		this(expectedSize, false);
+	}
+
+	// A direct map keeps its IDs off-heap, in a direct ByteBuffer
+	public IdMap(int expectedSize, boolean direct) {
+		super(2, expectedSize, direct);
+	}
+
+	public V get(long mostSignificantBits, long leastSignificantBits) {
+		return get(find(mostSignificantBits, leastSignificantBits));
+	}
+
+	public V get(Id id) {
+		return get(find(id));
+	}
+
+	public V get(UUID id) {
+		return get(find(id));
+	}
+
+	public V get(byte[] id) {
+		return get(find(id));
+	}
+
+	public V get(CharSequence id) {
+		return get(find(id));
+	}
+
+	@SuppressWarnings("unchecked")
+	private V get(int slot) {
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	public V put(long mostSignificantBits, long leastSignificantBits, V value) {
+		int slot = insert(mostSignificantBits, leastSignificantBits);
+		if (slot < 0)
+			slot = -1 - slot;
+		final V previous = get(slot);
+		values[slot] = value;
+		return previous;
+	}
+
+	public V put(Id id, V value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+				value);
+	}
+
+	public V put(UUID id, V value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+				value);
+	}
+
+	public V remove(long mostSignificantBits, long leastSignificantBits) {
+		final int slot = find(mostSignificantBits, leastSignificantBits);
+		if (slot < 0)
+			return null;
+		final V previous = get(slot);
+		delete(slot);
+		return previous;
+	}
+
+	public V remove(Id id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	public V remove(UUID id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	@Override
+	void resize(int slots) {
+		previous = values;
+		values = new Object[slots];
+	}
+
+	@Override
+	void transfer(int from, int to) {
+		values[to] = previous[from];
+	}
+
+	@Override
+	void resized() {
+		previous = null;
+	}
+
+	@Override
+	void shift(int from, int to) {
+		values[to] = values[from];
+	}
+
+	@Override
+	void release(int slot) {
+		values[slot] = null;
+	}
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.util.UUID;
+
+public class IdSet extends IdTable {
+
+	public IdSet() {
+		this(0, false);
+	}
+
+	public IdSet(int expectedSize) {
+		this(expectedSize, false);
+	}
+
+	// A direct set keeps its table off-heap, in a direct ByteBuffer
+	public IdSet(int expectedSize, boolean direct) {
+		super(2, expectedSize, direct);
+	}
+
+	public boolean add(long mostSignificantBits, long leastSignificantBits) {
+		return insert(mostSignificantBits, leastSignificantBits) < 0;
+	}
+
+	public boolean add(Id id) {
+		return add(id.getMostSignificantBits(), id.getLeastSignificantBits());
+	}
+
+	public boolean add(UUID id) {
+		return add(id.getMostSignificantBits(), id.getLeastSignificantBits());
+	}
+
+	public boolean remove(long mostSignificantBits, long leastSignificantBits) {
+		final int slot = find(mostSignificantBits, leastSignificantBits);
+		if (slot < 0)
+			return false;
+		delete(slot);
+		return true;
+	}
+
+	public boolean remove(Id id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	public boolean remove(UUID id) {
+		return remove(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.UUID;
+
+// An open addressing hash table of 128-bit IDs with linear probing. Each
+// slot is a fixed number of longs, the two halves of the ID followed by a
+// long value, if any, stored in a flat long[] or, off-heap, in a direct
+// ByteBuffer; other values are kept apart, by slot (see resize). An
+// all-zero slot is empty, so the nil ID is kept in an extra slot after the
+// others. Removal shifts later entries back instead of leaving tombstones.
+// Like java.util.HashMap, tables are not thread-safe.
+public abstract class IdTable {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final int width; // Longs per slot
+
+	private final boolean direct;
+
+	private long[] table;
+
+	private LongBuffer buffer;
+
+	private int capacity; // Slots, not counting the slot for the nil ID
+
+	private int size, limit;
+
+	private boolean nil;
+
+	IdTable(int width, int expectedSize, boolean direct) {
+		if (expectedSize < 0)
+			throw new IllegalArgumentException("Negative expected size");
+		this.width = width;
+		this.direct = direct;
+		int capacity = MIN_CAPACITY;
+		while (capacity / 4 * 3 < expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	final boolean isDirect() {
+		return direct;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		allocate(MIN_CAPACITY);
+		resized();
+		size = 0;
+		nil = false;
+	}
+
+	public boolean contains(long mostSignificantBits, long leastSignificantBits) {
+		return find(mostSignificantBits, leastSignificantBits) >= 0;
+	}
+
+	public boolean contains(Id id) {
+		return find(id) >= 0;
+	}
+
+	public boolean contains(UUID id) {
+		return find(id) >= 0;
+	}
+
+	public boolean contains(byte[] id) {
+		return find(id) >= 0;
+	}
+
+	public boolean contains(CharSequence id) {
+		return find(id) >= 0;
+	}
+
+	// Returns the IDs packed as pairs of most and least significant bits
+	// (see IdArrays)
+	public long[] keys() {
+		final long[] keys = new long[2 * size];
+		int j = 0;
+		for (int i = 0; i < capacity; i++) {
+			final long m = get(i * width), l = get(i * width + 1);
+			if ((m | l) != 0) {
+				keys[j++] = m;
+				keys[j++] = l;
+			}
+		}
+		return keys; // The nil ID, if any, is already zero
+	}
+
+	final int find(Id id) {
+		return find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+	}
+
+	final int find(UUID id) {
+		return find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+	}
+
+	final int find(byte[] id) {
+		long m = 0, l = 0;
+		for (int i = 0; i < 8; i++) {
+			m = (m << 8) | (id[i] & 0xFF);
+			l = (l << 8) | (id[i + 8] & 0xFF);
+		}
+		return find(m, l);
+	}
+
+	// Looks up a 21 digit compact form (see Id.asCharArray); anything else
+	// is not found
+	final int find(CharSequence id) {
+		if (id.length() != 21)
+			return -1;
+		final long high = Id.base64(id, 0, 10), middle = Id.base64(id, 10, 1),
+				low = Id.base64(id, 11, 10);
+		if ((high | middle | low) < 0)
+			return -1;
+		return find(Id.mostSignificantBits(high, middle),
+				Id.leastSignificantBits(middle, low));
+	}
+
+	// Returns the slot of the ID, or -1
+	final int find(long m, long l) {
+		if ((m | l) == 0)
+			return nil ? capacity : -1;
+		final int mask = capacity - 1;
+		for (int i = index(m, l, mask);; i = (i + 1) & mask) {
+			final long a = get(i * width), b = get(i * width + 1);
+			if (a == m && b == l)
+				return i;
+			if ((a | b) == 0)
+				return -1;
+		}
+	}
+
+	// Returns the slot of the ID, or if it was added, -1 - slot
+	final int insert(long m, long l) {
+		if ((m | l) == 0) {
+			if (nil)
+				return capacity;
+			nil = true;
+			size++;
+			return -1 - capacity;
+		}
+		if (size >= limit)
+			rehash(capacity << 1);
+		final int mask = capacity - 1;
+		for (int i = index(m, l, mask);; i = (i + 1) & mask) {
+			final long a = get(i * width), b = get(i * width + 1);
+			if (a == m && b == l)
+				return i;
+			if ((a | b) == 0) {
+				set(i * width, m);
+				set(i * width + 1, l);
+				size++;
+				return -1 - i;
+			}
+		}
+	}
+
+	final void delete(int slot) {
+		size--;
+		if (slot == capacity) {
+			nil = false;
+			empty(slot);
+			return;
+		}
+		final int mask = capacity - 1;
+		for (int i = slot, j = (slot + 1) & mask;; j = (j + 1) & mask) {
+			final long a = get(j * width), b = get(j * width + 1);
+			if ((a | b) == 0) {
+				empty(i);
+				return;
+			}
+			// Move the entry back into the hole unless its probe sequence
+			// starts after the hole (cyclically)
+			final int k = index(a, b, mask);
+			if (i < j ? (k <= i || k > j) : (k <= i && k > j)) {
+				for (int n = 0; n < width; n++)
+					set(i * width + n, get(j * width + n));
+				shift(j, i);
+				i = j;
+			}
+		}
+	}
+
+	private void empty(int slot) {
+		for (int n = 0; n < width; n++)
+			set(slot * width + n, 0);
+		release(slot);
+	}
+
+	final long value(int slot) {
+		return get(slot * width + 2);
+	}
+
+	final void value(int slot, long value) {
+		set(slot * width + 2, value);
+	}
+
+	private static int index(long m, long l, int mask) {
+		return (int) Id.mix(m ^ Id.mix(l)) & mask;
+	}
+
+	private long get(int index) {
+		return table != null ? table[index] : buffer.get(index);
+	}
+
+	private void set(int index, long value) {
+		if (table != null)
+			table[index] = value;
+		else
+			buffer.put(index, value);
+	}
+
+	private void allocate(int capacity) {
+		final long longs = (long) (capacity + 1) * width;
+		if (capacity <= 0
+				|| longs > (direct ? Integer.MAX_VALUE / 8
+						: Integer.MAX_VALUE - 8))
+			throw new IllegalStateException("Table is full");
+		if (direct) {
+			table = null;
+			buffer = ByteBuffer.allocateDirect((int) longs * 8)
+					.order(ByteOrder.nativeOrder()).asLongBuffer();
+		} else {
+			table = new long[(int) longs];
+			buffer = null;
+		}
+		this.capacity = capacity;
+		limit = capacity / 4 * 3;
+		resize(capacity + 1);
+	}
+
+	private void rehash(int capacity) {
+		final long[] oldTable = table;
+		final LongBuffer oldBuffer = buffer;
+		final int oldCapacity = this.capacity;
+		allocate(capacity);
+		final int mask = capacity - 1;
+		for (int i = 0; i <= oldCapacity; i++) {
+			final int from = i * width;
+			final long m = oldTable != null ? oldTable[from] : oldBuffer
+					.get(from);
+			final long l = oldTable != null ? oldTable[from + 1] : oldBuffer
+					.get(from + 1);
+			int j;
+			if (i == oldCapacity)
+				j = capacity;
+			else if ((m | l) == 0)
+				continue;
+			else
+				for (j = index(m, l, mask); (get(j * width) | get(j * width
+						+ 1)) != 0; j = (j + 1) & mask)
+					;
+			for (int n = 0; n < width; n++)
+				set(j * width + n, oldTable != null ? oldTable[from + n]
+						: oldBuffer.get(from + n));
+			transfer(i, j);
+		}
+		resized();
+	}
+
+	// Values that are not stored in the slots themselves follow their IDs
+	// through these methods. Note that resize is first called from the
+	// constructor, before the fields of a subclass are initialized
+
+	// Allocates storage for slots, keeping the previous storage until the
+	// rehash that follows has transferred the values
+	void resize(int slots) {
+	}
+
+	// Moves a value from the previous storage during a rehash
+	void transfer(int from, int to) {
+	}
+
+	// Releases the previous storage
+	void resized() {
+	}
+
+	// Moves a value within the current storage during a removal
+	void shift(int from, int to) {
+	}
+
+	void release(int slot) {
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Canonical instances of repeated texts and IDs, so that equal values share
+// one object. Texts are keyed by their UTF-8 bytes and IDs by their 128
+// bits. The pool is a fixed number of slots, each holding the last value
+// that hashed to it, so it never grows and a value that is rarely seen is
+// simply replaced. Lookups take no locks and, on a hit, allocate nothing
+// that outlives the call. Slots are atomic references, so a value is fully
+// built before another thread can see it (a memoized Text has state that is
+// not final); two threads that miss on the same slot simply both store.
+// Lookups and hits are counted in counters striped by thread, as in
+// OperationMetrics, so lookups from different threads rarely share a cache
+// line.
+public final class InternPool {
+
+	private final AtomicReferenceArray<Text> texts;
+
+	private final AtomicReferenceArray<Id> ids;
+
+	private static final int LOOKUPS = 0, HITS = 1;
+
+	private final AtomicLongArray counters = new AtomicLongArray(
+			OperationMetrics.STRIPES * OperationMetrics.PAD);
+
+	public InternPool(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Capacity out of range");
+		int n = 1;
+		while (n < capacity)
+			n <<= 1;
+		texts = new AtomicReferenceArray<Text>(n);
+		ids = new AtomicReferenceArray<Id>(n);
+	}
+
+	// The text should not change afterwards, as the pool may keep it
+	public Text intern(Text text) {
+		final int slot = (int) Id.mix(text.hashCode()) & (texts.length() - 1);
+		final Text pooled = texts.get(slot);
+		if (pooled != null && pooled.equals(text))
+			return hit(pooled);
+		return miss(texts, slot, text.memoize());
+	}
+
+	// The bytes are copied on a miss, so the buffer can be reused
+	public Text intern(ByteBuffer utf8) {
+		final int slot = (int) Id.mix(Text.hashCode(utf8))
+				& (texts.length() - 1);
+		final Text pooled = texts.get(slot);
+		if (pooled != null && pooled.contentEquals(utf8))
+			return hit(pooled);
+		final ByteBuffer copy = ByteBuffer.allocate(utf8.remaining());
+		copy.put(utf8.duplicate()).flip();
+		return miss(texts, slot, Text.memoize(copy));
+	}
+
+	public Text intern(CharSequence text) {
+		final int slot = (int) Id.mix(Text.hashCode(text))
+				& (texts.length() - 1);
+		final Text pooled = texts.get(slot);
+		if (pooled != null && pooled.contentEquals(text))
+			return hit(pooled);
+		return miss(texts, slot, Text.memoize(text));
+	}
+
+	public Id intern(Id id) {
+		final long m = id.getMostSignificantBits(), l = id
+				.getLeastSignificantBits();
+		final int slot = slot(m, l);
+		final Id pooled = ids.get(slot);
+		if (pooled != null && pooled.getMostSignificantBits() == m
+				&& pooled.getLeastSignificantBits() == l)
+			return hit(pooled);
+		return miss(ids, slot, id);
+	}
+
+	public Id intern(long mostSignificantBits, long leastSignificantBits) {
+		final int slot = slot(mostSignificantBits, leastSignificantBits);
+		final Id pooled = ids.get(slot);
+		if (pooled != null
+				&& pooled.getMostSignificantBits() == mostSignificantBits
+				&& pooled.getLeastSignificantBits() == leastSignificantBits)
+			return hit(pooled);
+		return miss(ids, slot, Id.valueOf(mostSignificantBits,
+				leastSignificantBits));
+	}
+
+	public Id intern(UUID id) {
+		return intern(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	// Sums of the striped counters, which are approximate while lookups
+	// run
+
+	public long lookups() {
+		return sum(LOOKUPS);
+	}
+
+	public long hits() {
+		return sum(HITS);
+	}
+
+	// The share of lookups that returned an existing value, each of which
+	// is an object fewer if the caller drops its own copy
+	public double dedupRatio() {
+		final long lookups = sum(LOOKUPS);
+		return lookups == 0 ? 0 : (double) sum(HITS) / lookups;
+	}
+
+	public void clear() {
+		for (int i = 0; i < texts.length(); i++) {
+			texts.set(i, null);
+			ids.set(i, null);
+		}
+		for (int i = 0; i < counters.length(); i++)
+			counters.set(i, 0);
+	}
+
+	private int slot(long m, long l) {
+		return (int) Id.mix(m ^ Id.mix(l)) & (ids.length() - 1);
+	}
+
+	private <T> T hit(T value) {
+		final int i = OperationMetrics.stripe() * OperationMetrics.PAD;
+		counters.incrementAndGet(i + LOOKUPS);
+		counters.incrementAndGet(i + HITS);
+		return value;
+	}
+
+	private <T> T miss(AtomicReferenceArray<T> slots, int slot, T value) {
+		slots.set(slot, value);
+		counters.incrementAndGet(OperationMetrics.stripe()
+				* OperationMetrics.PAD + LOOKUPS);
+		return value;
+	}
+
+	private long sum(int counter) {
+		long sum = 0;
+		for (int i = counter; i < counters.length(); i += OperationMetrics.PAD)
+			sum += counters.get(i);
+		return sum;
+	}
+
+}
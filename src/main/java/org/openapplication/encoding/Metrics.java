@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Counters for the encoding hot paths. Instrumentation is compiled in but
+// switched off unless the system property
+// org.openapplication.encoding.metrics is true when this class is loaded;
+// every call site tests the ENABLED constant first, which the JIT compiler
+// folds away when it is false. When on, each operation updates striped
+// counters, one in SAMPLE_INTERVAL operations of each thread is timed, and
+// listeners, if any, are told about every operation.
+public final class Metrics {
+
+	public static final boolean ENABLED = Boolean
+			.getBoolean("org.openapplication.encoding.metrics");
+
+	public static final int SAMPLE_INTERVAL = 64;
+
+	public enum Operation {
+		BINARY_ENCODE, BINARY_DECODE, ID_PARSE, ID_FORMAT, ID_NAME_HASH, ID_ENCODE, ID_DECODE, TEXT_ENCODE, TEXT_DECODE
+	}
+
+	// Called on the thread that performed the operation, so it should be
+	// quick. The volume is in chars or bytes, whichever is the input or
+	// output of the operation, and nanos is -1 if it was not timed
+	public interface Listener {
+		void recorded(Operation operation, long volume, long errors,
+				long nanos);
+	}
+
+	private static final OperationMetrics[] METRICS;
+
+	static {
+		final Operation[] operations = Operation.values();
+		METRICS = new OperationMetrics[operations.length];
+		for (int i = 0; i < operations.length; i++)
+			METRICS[i] = new OperationMetrics(operations[i]);
+	}
+
+	private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	// Counts down to the next operation of the thread to time, so that
+	// picking one takes no shared state
+	private static final ThreadLocal<int[]> countdown = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[] { SAMPLE_INTERVAL };
+		}
+	};
+
+	public static OperationMetrics get(Operation operation) {
+		return METRICS[operation.ordinal()];
+	}
+
+	public static void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	// Registers an MBean per operation, named
+	// org.openapplication.encoding:type=Metrics,name=<operation>
+	public static void registerMBeans() throws JMException {
+		registerMBeans(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public static void registerMBeans(MBeanServer server) throws JMException {
+		for (OperationMetrics metrics : METRICS)
+			server.registerMBean(metrics, objectName(metrics.getOperation()));
+	}
+
+	public static void unregisterMBeans(MBeanServer server)
+			throws JMException {
+		for (OperationMetrics metrics : METRICS)
+			server.unregisterMBean(objectName(metrics.getOperation()));
+	}
+
+	private static ObjectName objectName(String operation) throws JMException {
+		return new ObjectName("org.openapplication.encoding:type=Metrics,name="
+				+ operation);
+	}
+
+	public static void reset() {
+		for (OperationMetrics metrics : METRICS)
+			metrics.reset();
+	}
+
+	// Call sites do
+	// final long start = Metrics.ENABLED ? Metrics.start() : 0;
+	// ...
+	// if (Metrics.ENABLED)
+	// Metrics.record(Metrics.Operation.X, start, volume, errors);
+
+	// Returns the start time of an operation that is to be timed, or 0
+	static long start() {
+		final int[] countdown = Metrics.countdown.get();
+		if (--countdown[0] != 0)
+			return 0;
+		countdown[0] = SAMPLE_INTERVAL;
+		return System.nanoTime() | 1;
+	}
+
+	// Errors are inputs that were rejected or replacement characters that
+	// were substituted for malformed input
+	static void record(Operation operation, long start, long volume,
+			long errors) {
+		final long nanos = start != 0 ? Math.max(System.nanoTime() - start, 0)
+				: -1;
+		METRICS[operation.ordinal()].add(volume, errors, nanos);
+		if (!listeners.isEmpty())
+			for (Listener listener : listeners)
+				listener.recorded(operation, volume, errors, nanos);
+	}
+
+	private Metrics() {
+	}
+
+}
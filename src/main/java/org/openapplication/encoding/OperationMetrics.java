@@ -0,0 +1,149 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The counters of one operation (see Metrics). Each counter is striped over
+// cache lines, indexed by thread, and summed when read, so threads rarely
+// update the same line; sums taken while operations run are approximate.
+public final class OperationMetrics implements OperationMetricsMBean {
+
+	static final int STRIPES = stripes();
+
+	// Longs per stripe: the counters, padded to a 128 byte line
+	static final int PAD = 16;
+
+	private static final int COUNT = 0, VOLUME = 1, ERRORS = 2, SAMPLES = 3,
+			NANOS = 4;
+
+	private static final int BUCKETS = 64;
+
+	private final Metrics.Operation operation;
+
+	private final AtomicLongArray counters = new AtomicLongArray(STRIPES
+			* PAD);
+
+	// Sampled latencies, where bucket b holds those below 2^b nanoseconds
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	OperationMetrics(Metrics.Operation operation) {
+		this.operation = operation;
+	}
+
+	void add(long volume, long errors, long nanos) {
+		final int i = stripe() * PAD;
+		counters.incrementAndGet(i + COUNT);
+		if (volume != 0)
+			counters.addAndGet(i + VOLUME, volume);
+		if (errors != 0)
+			counters.addAndGet(i + ERRORS, errors);
+		if (nanos >= 0) {
+			counters.incrementAndGet(i + SAMPLES);
+			counters.addAndGet(i + NANOS, nanos);
+			histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		}
+	}
+
+	public String getOperation() {
+		return operation.name();
+	}
+
+	public long getCount() {
+		return sum(COUNT);
+	}
+
+	public long getVolume() {
+		return sum(VOLUME);
+	}
+
+	public long getErrors() {
+		return sum(ERRORS);
+	}
+
+	public long getSamples() {
+		return sum(SAMPLES);
+	}
+
+	public double getMeanNanos() {
+		final long samples = sum(SAMPLES);
+		return samples == 0 ? 0 : (double) sum(NANOS) / samples;
+	}
+
+	public long getMedianNanos() {
+		return percentile(0.5);
+	}
+
+	public long get99thPercentileNanos() {
+		return percentile(0.99);
+	}
+
+	public long getMaxNanos() {
+		return percentile(1);
+	}
+
+	// The counts of the latency buckets, where bucket b counts latencies
+	// from 2^(b - 1) up to 2^b nanoseconds
+	public long[] histogram() {
+		final long[] counts = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++)
+			counts[b] = histogram.get(b);
+		return counts;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counters.length(); i++)
+			counters.set(i, 0);
+		for (int b = 0; b < BUCKETS; b++)
+			histogram.set(b, 0);
+	}
+
+	private long percentile(double fraction) {
+		final long[] counts = histogram();
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		if (total == 0)
+			return 0;
+		final long rank = Math.max((long) Math.ceil(fraction * total), 1);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++)
+			if ((seen += counts[b]) >= rank)
+				return b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b;
+		return Long.MAX_VALUE;
+	}
+
+	private long sum(int counter) {
+		long sum = 0;
+		for (int i = counter; i < counters.length(); i += PAD)
+			sum += counters.get(i);
+		return sum;
+	}
+
+	// The stripe of the current thread, which InternPool also uses
+	static int stripe() {
+		final long id = Thread.currentThread().getId();
+		return (int) Id.mix(id) & (STRIPES - 1);
+	}
+
+	private static int stripes() {
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors() * 2 && n < 64)
+			n <<= 1;
+		return n;
+	}
+
+}
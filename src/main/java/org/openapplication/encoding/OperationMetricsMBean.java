@@ -0,0 +1,42 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+public interface OperationMetricsMBean {
+
+	String getOperation();
+
+	long getCount();
+
+	long getVolume();
+
+	long getErrors();
+
+	long getSamples();
+
+	double getMeanNanos();
+
+	// Latencies are kept in power-of-two buckets, so these are upper bounds
+
+	long getMedianNanos();
+
+	long get99thPercentileNanos();
+
+	long getMaxNanos();
+
+	void reset();
+
+}
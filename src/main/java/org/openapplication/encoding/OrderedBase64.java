@@ -0,0 +1,362 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// Base64 with the 64 digits of base64url in US-ASCII order, so that encoded
+// strings sort byte-wise (and by String.compareTo) exactly like what they
+// encode: byte arrays of the same length in unsigned order, and IDs as
+// unsigned 128-bit values (see Id.compareTo). The bits are laid out as in
+// Binary and the compact ID forms (see Id.asCharArray), digit for digit, so
+// converting between the two alphabets is a translation of each digit. IDs
+// of the standard variant have 21 digits and others 22, so IDs sort like
+// their strings only within the same variant; time-ordered IDs (see
+// IdGenerator) are all standard.
+public final class OrderedBase64 {
+
+	private static final byte[] DIGITS = new byte[] { '-', '0', '1', '2',
+			'3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F',
+			'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S',
+			'T', 'U', 'V', 'W', 'X', 'Y', 'Z', '_', 'a', 'b', 'c', 'd', 'e',
+			'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r',
+			's', 't', 'u', 'v', 'w', 'x', 'y', 'z' };
+
+	private static final byte[] VALUES = new byte[256];
+
+	// Digit for digit translations from and to the Binary alphabet
+	private static final byte[] FROM_BINARY = new byte[256],
+			TO_BINARY = new byte[256];
+
+	static {
+		Arrays.fill(VALUES, (byte) -1);
+		Arrays.fill(FROM_BINARY, (byte) -1);
+		Arrays.fill(TO_BINARY, (byte) -1);
+		for (int i = 0; i < DIGITS.length; i++) {
+			VALUES[DIGITS[i]] = (byte) i;
+			FROM_BINARY[Binary.BASE64_DIGITS[i]] = DIGITS[i];
+			TO_BINARY[DIGITS[i]] = Binary.BASE64_DIGITS[i];
+		}
+	}
+
+	public static char asChar(byte digit) {
+		return (char) DIGITS[digit];
+	}
+
+	public static byte asByte(char digit) {
+		if (digit <= 0xFF) {
+			final byte value = VALUES[digit];
+			if (value >= 0)
+				return value;
+		}
+		throw forbidden(digit);
+	}
+
+	private static IllegalArgumentException forbidden(char digit) {
+		return new IllegalArgumentException(
+				"Invalid ordered Base64: forbidden character: U+"
+						+ Integer.toHexString(digit));
+	}
+
+	// Binary data; lengths are as in Binary.encodedLength and
+	// Binary.decodedLength
+
+	public static boolean isOrdered(CharSequence binary) {
+		final int length = binary.length();
+		if (length % 4 == 1)
+			return false;
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = binary.charAt(i);
+			if (c > 0xFF || (value = VALUES[c]) < 0)
+				return false;
+		}
+		return (value & PADDING[length % 4]) == 0;
+	}
+
+	// The bits of the last digit that must be zero, by length % 4
+	private static final int[] PADDING = { 0, 0x3F, 0xF, 0x3 };
+
+	public static char[] asCharArray(byte[] binary) {
+		final char[] chars = new char[Binary.encodedLength(binary.length)];
+		encode(binary, 0, binary.length, chars, 0);
+		return chars;
+	}
+
+	public static int asCharArray(byte[] binary, int offset, int length,
+			char[] out, int outOffset) {
+		checkBounds(binary.length, offset, length);
+		checkBounds(out.length, outOffset, Binary.encodedLength(length));
+		return encode(binary, offset, length, out, outOffset);
+	}
+
+	public static int asAsciiArray(byte[] binary, int offset, int length,
+			byte[] out, int outOffset) {
+		checkBounds(binary.length, offset, length);
+		checkBounds(out.length, outOffset, Binary.encodedLength(length));
+		return encode(binary, offset, length, out, outOffset);
+	}
+
+	public static String asString(byte[] binary) {
+		return new String(asCharArray(binary));
+	}
+
+	public static byte[] asByteArray(CharSequence binary) {
+		final int length = binary.length();
+		if (length % 4 == 1)
+			throw new IllegalArgumentException(
+					"Invalid ordered Base64: one digit after the last block");
+		final byte[] bytes = new byte[Binary.decodedLength(length)];
+		decode(binary, 0, length, bytes, 0);
+		return bytes;
+	}
+
+	private static int encode(byte[] in, int offset, int length, char[] out,
+			int outOffset) {
+		final byte[] digits = DIGITS;
+		final int end = offset + length;
+		int i = offset, j = outOffset;
+		for (final int blocks = end - length % 3; i < blocks; i += 3) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+			out[j] = (char) digits[bits >>> 18];
+			out[j + 1] = (char) digits[(bits >>> 12) & 0x3F];
+			out[j + 2] = (char) digits[(bits >>> 6) & 0x3F];
+			out[j + 3] = (char) digits[bits & 0x3F];
+			j += 4;
+		}
+		if (i < end) {
+			// 1 or 2 bytes left, as 2 or 3 digits with zero padding bits
+			final int bits = ((in[i] & 0xFF) << 16)
+					| (i + 1 < end ? (in[i + 1] & 0xFF) << 8 : 0);
+			out[j++] = (char) digits[bits >>> 18];
+			out[j++] = (char) digits[(bits >>> 12) & 0x3F];
+			if (i + 1 < end)
+				out[j++] = (char) digits[(bits >>> 6) & 0x3F];
+		}
+		return j - outOffset;
+	}
+
+	private static int encode(byte[] in, int offset, int length, byte[] out,
+			int outOffset) {
+		final byte[] digits = DIGITS;
+		final int end = offset + length;
+		int i = offset, j = outOffset;
+		for (final int blocks = end - length % 3; i < blocks; i += 3) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+			out[j] = digits[bits >>> 18];
+			out[j + 1] = digits[(bits >>> 12) & 0x3F];
+			out[j + 2] = digits[(bits >>> 6) & 0x3F];
+			out[j + 3] = digits[bits & 0x3F];
+			j += 4;
+		}
+		if (i < end) {
+			final int bits = ((in[i] & 0xFF) << 16)
+					| (i + 1 < end ? (in[i + 1] & 0xFF) << 8 : 0);
+			out[j++] = digits[bits >>> 18];
+			out[j++] = digits[(bits >>> 12) & 0x3F];
+			if (i + 1 < end)
+				out[j++] = digits[(bits >>> 6) & 0x3F];
+		}
+		return j - outOffset;
+	}
+
+	// Decodes digits as in Binary, where a digit outside the alphabet looks
+	// up -1 and makes the combined bits negative
+	private static int decode(CharSequence in, int start, int end,
+			byte[] out, int offset) {
+		int i = start, j = offset;
+		for (final int blocks = end - (end - start) % 4; i < blocks; i += 4) {
+			final int bits = value(in.charAt(i)) << 18
+					| value(in.charAt(i + 1)) << 12
+					| value(in.charAt(i + 2)) << 6 | value(in.charAt(i + 3));
+			if (bits < 0)
+				throw forbidden(in, i, i + 4);
+			out[j] = (byte) (bits >>> 16);
+			out[j + 1] = (byte) (bits >>> 8);
+			out[j + 2] = (byte) bits;
+			j += 3;
+		}
+		if (i < end) {
+			int bits = 0;
+			for (int k = i; k < end; k++)
+				bits = bits << 6 | value(in.charAt(k));
+			if (bits < 0)
+				throw forbidden(in, i, end);
+			if ((bits & PADDING[end - i]) != 0)
+				throw new IllegalArgumentException(
+						"Invalid ordered Base64: non-zero bits in padding");
+			bits <<= 6 * (4 - (end - i));
+			out[j++] = (byte) (bits >>> 16);
+			if (end - i == 3)
+				out[j++] = (byte) (bits >>> 8);
+		}
+		return j - offset;
+	}
+
+	private static int value(char c) {
+		return c > 0xFF ? -1 : VALUES[c];
+	}
+
+	private static IllegalArgumentException forbidden(CharSequence in,
+			int start, int end) {
+		for (int i = start; i < end; i++)
+			if (value(in.charAt(i)) < 0)
+				return forbidden(in.charAt(i));
+		throw new IllegalStateException();
+	}
+
+	// IDs, in the 21 digit form for the standard variant and the 22 digit
+	// form otherwise
+
+	public static char[] asCharArray(Id id) {
+		return asCharArray(id.getMostSignificantBits(),
+				id.getLeastSignificantBits());
+	}
+
+	public static char[] asCharArray(UUID uuid) {
+		return asCharArray(uuid.getMostSignificantBits(),
+				uuid.getLeastSignificantBits());
+	}
+
+	public static String asString(Id id) {
+		return new String(asCharArray(id));
+	}
+
+	public static String asString(UUID uuid) {
+		return new String(asCharArray(uuid));
+	}
+
+	private static char[] asCharArray(long m, long l) {
+		if (!Id.isStandard(l))
+			return asCharArray(bytes(m, l));
+		final char[] chars = new char[21];
+		final byte[] digits = DIGITS;
+		int j = 0;
+		for (int shift = 58; shift > 0; shift -= 6)
+			chars[j++] = (char) digits[(int) (m >>> shift) & 0x3F];
+		chars[j++] = (char) digits[(int) ((m & 0xF) << 2 | (l >>> 60) & 0x3)];
+		for (int shift = 54; shift >= 0; shift -= 6)
+			chars[j++] = (char) digits[(int) (l >>> shift) & 0x3F];
+		return chars;
+	}
+
+	// Writes the 21 or 22 US-ASCII digits of an ID and returns their number
+	public static int asAsciiArray(Id id, byte[] out, int offset) {
+		final long m = id.getMostSignificantBits(), l = id
+				.getLeastSignificantBits();
+		if (!Id.isStandard(l)) {
+			checkBounds(out.length, offset, 22);
+			return encode(bytes(m, l), 0, 16, out, offset);
+		}
+		checkBounds(out.length, offset, 21);
+		final byte[] digits = DIGITS;
+		int j = offset;
+		for (int shift = 58; shift > 0; shift -= 6)
+			out[j++] = digits[(int) (m >>> shift) & 0x3F];
+		out[j++] = digits[(int) ((m & 0xF) << 2 | (l >>> 60) & 0x3)];
+		for (int shift = 54; shift >= 0; shift -= 6)
+			out[j++] = digits[(int) (l >>> shift) & 0x3F];
+		return 21;
+	}
+
+	private static byte[] bytes(long m, long l) {
+		final byte[] bytes = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (m >>> (56 - 8 * i));
+			bytes[i + 8] = (byte) (l >>> (56 - 8 * i));
+		}
+		return bytes;
+	}
+
+	public static Id asId(CharSequence id) {
+		final long[] bits = new long[2];
+		if (!tryParse(id, bits, 0))
+			throw new IllegalArgumentException(
+					"The character sequence is not a recognized ordered ID");
+		return Id.valueOf(bits[0], bits[1]);
+	}
+
+	// Accepts the 21 and 22 digit forms, storing the bits as in Id.tryParse
+	public static boolean tryParse(CharSequence id, long[] out, int offset) {
+		final int length = id.length();
+		if (length != 21 && length != 22)
+			return false;
+		final long high = bits(id, 0, 10), middle = bits(id, 10, 1), low = bits(
+				id, 11, 10);
+		if (length == 21) {
+			if ((high | middle | low) < 0)
+				return false;
+			out[offset] = Id.mostSignificantBits(high, middle);
+			out[offset + 1] = Id.leastSignificantBits(middle, low);
+			return true;
+		}
+		final long last = bits(id, 21, 1);
+		if ((high | middle | low | last) < 0 || (last & 0xF) != 0)
+			return false;
+		out[offset] = (high << 4) | (middle >>> 2);
+		out[offset + 1] = (middle << 62) | (low << 2) | (last >>> 4);
+		return true;
+	}
+
+	// At most 10 digits, so that a digit outside the alphabet leaves the
+	// bits negative
+	private static long bits(CharSequence in, int i, int n) {
+		long bits = 0;
+		for (final int end = i + n; i < end; i++)
+			bits = (bits << 6) | value(in.charAt(i));
+		return bits;
+	}
+
+	// Converts between the Binary alphabet, which is also that of the
+	// compact ID forms, and this one. Any length is translated, so that
+	// checking the input is left to whatever decodes it; a character
+	// outside the alphabet is an error
+
+	public static String fromBinary(CharSequence binary) {
+		return translate(binary, FROM_BINARY);
+	}
+
+	public static String toBinary(CharSequence ordered) {
+		return translate(ordered, TO_BINARY);
+	}
+
+	private static String translate(CharSequence in, byte[] table) {
+		final int length = in.length();
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			final char c = in.charAt(i);
+			final byte digit = c > 0xFF ? -1 : table[c];
+			if (digit < 0)
+				throw table == FROM_BINARY ? new IllegalArgumentException(
+						"Invalid Base64: forbidden character: U+"
+								+ Integer.toHexString(c)) : forbidden(c);
+			chars[i] = (char) digit;
+		}
+		return new String(chars);
+	}
+
+	private static void checkBounds(int size, int offset, int length) {
+		if ((offset | length) < 0 || length > size - offset)
+			throw new IndexOutOfBoundsException();
+	}
+
+	private OrderedBase64() {
+	}
+
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+
+// Decodes percent-encoded text (see Id.decode) that arrives in chunks. A
+// partial %XX escape, UTF-8 sequence or surrogate pair at the end of a chunk
+// is carried over to the next, and finish applies the rules for input that
+// ends inside one. The output is either UTF-16, appended to a StringBuilder,
+// or UTF-8 bytes, written to a ByteBuffer. Byte input is US-ASCII, except
+// that bytes 0x80-0xFF are taken as raw UTF-8 octets, as if escaped.
+public final class PercentDecoder {
+
+	private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+	// The most bytes written for one unit of input: a replacement for a
+	// pending lead surrogate, and then a 3 byte character or a replacement
+	private static final int MAX_BYTES = 6;
+
+	// When the output buffer has less room than that, a unit is decoded
+	// into this buffer instead, and its bytes are moved to the output as
+	// room is made, on this call or the next. It is kept ready for reading
+	private final ByteBuffer pending = ByteBuffer.allocate(MAX_BYTES);
+
+	private int octets, remaining, codepoint;
+
+	// The hexadecimal digits of an escape read so far, or -1 outside one
+	private int escape = -1;
+
+	private int high;
+
+	// A lead surrogate waiting for its tail surrogate (UTF-8 output only)
+	private char surrogate;
+
+	private long replacements;
+
+	public PercentDecoder() {
+		pending.limit(0);
+	}
+
+	// The number of replacement characters substituted for malformed input
+	// since the decoder was created or reset
+	public long replacements() {
+		return replacements;
+	}
+
+	public void reset() {
+		pending.clear().flip();
+		octets = remaining = codepoint = high = 0;
+		escape = -1;
+		surrogate = 0;
+		replacements = 0;
+	}
+
+	public void decode(CharSequence in, StringBuilder out) {
+		final int length = in.length();
+		for (int i = 0; i < length; i++)
+			decode(in.charAt(i), out, null);
+	}
+
+	public void decode(CharBuffer in, StringBuilder out) {
+		while (in.hasRemaining())
+			decode(in.get(), out, null);
+	}
+
+	public void decode(ByteBuffer in, StringBuilder out) {
+		while (in.hasRemaining())
+			decode(in.get(), out, null);
+	}
+
+	// Writes UTF-8 bytes, and returns CoderResult.OVERFLOW, leaving the
+	// rest of the input, if the output buffer fills up. Any output buffer
+	// with room for a byte makes progress
+	public CoderResult decode(CharBuffer in, ByteBuffer out) {
+		while (drain(out) && in.hasRemaining())
+			if (out.remaining() >= MAX_BYTES)
+				decode(in.get(), null, out);
+			else {
+				pending.clear();
+				decode(in.get(), null, pending);
+				pending.flip();
+			}
+		return pending.hasRemaining() ? CoderResult.OVERFLOW
+				: CoderResult.UNDERFLOW;
+	}
+
+	public CoderResult decode(ByteBuffer in, ByteBuffer out) {
+		while (drain(out) && in.hasRemaining())
+			if (out.remaining() >= MAX_BYTES)
+				decode(in.get(), null, out);
+			else {
+				pending.clear();
+				decode(in.get(), null, pending);
+				pending.flip();
+			}
+		return pending.hasRemaining() ? CoderResult.OVERFLOW
+				: CoderResult.UNDERFLOW;
+	}
+
+	// Moves pending bytes to the output, returning true if none are left
+	private boolean drain(ByteBuffer out) {
+		while (pending.hasRemaining() && out.hasRemaining())
+			out.put(pending.get());
+		return !pending.hasRemaining();
+	}
+
+	// Writes a replacement character for anything left incomplete, and
+	// resets the state (but not the replacement count)
+	public void finish(StringBuilder out) {
+		finish(out, null);
+	}
+
+	// Returns CoderResult.OVERFLOW, to be called again, until all of the
+	// output has been written
+	public CoderResult finish(ByteBuffer out) {
+		if (!drain(out))
+			return CoderResult.OVERFLOW;
+		if (out.remaining() >= MAX_BYTES)
+			finish(null, out);
+		else {
+			pending.clear();
+			finish(null, pending);
+			pending.flip();
+			drain(out);
+		}
+		return pending.hasRemaining() ? CoderResult.OVERFLOW
+				: CoderResult.UNDERFLOW;
+	}
+
+	// Writes to either chars or bytes; the writes to bytes are unchecked
+	// here, so a full buffer throws BufferOverflowException
+
+	void decode(CharSequence in, ByteBuffer out) {
+		final int length = in.length();
+		for (int i = 0; i < length; i++)
+			decode(in.charAt(i), null, out);
+	}
+
+	void finish(StringBuilder chars, ByteBuffer bytes) {
+		if (surrogate != 0) {
+			surrogate = 0;
+			replace(chars, bytes);
+		}
+		if (escape >= 0 // If the input ended inside an escape
+				|| remaining > 0) // If the last sequence was not completed
+			replace(chars, bytes);
+		octets = remaining = codepoint = high = 0;
+		escape = -1;
+	}
+
+	private void decode(byte b, StringBuilder chars, ByteBuffer bytes) {
+		if (b >= 0)
+			decode((char) b, chars, bytes);
+		else if (escape >= 0) // Not a hexadecimal digit
+			decode((char) (b & 0xFF), chars, bytes);
+		else {
+			flush(chars, bytes);
+			octet(b & 0xFF, chars, bytes);
+		}
+	}
+
+	private void decode(char c, StringBuilder chars, ByteBuffer bytes) {
+		if (escape >= 0) {
+			// A character that is not a hexadecimal digit is skipped, but a
+			// digit after it is not
+			final int value = c > 0xFF ? -1 : Binary.HEX_VALUES[c];
+			if (value < 0) {
+				escape = -1;
+				replace(chars, bytes);
+				remaining = 0;
+			} else if (escape == 0) {
+				escape = 1;
+				high = value;
+			} else {
+				escape = -1;
+				octet((high << 4) | value, chars, bytes);
+			}
+			return;
+		}
+		switch (c) {
+		case '%':
+			flush(chars, bytes);
+			escape = 0;
+			break;
+		case '+':
+			flush(chars, bytes);
+			append(' ', chars, bytes);
+			break;
+		default:
+			if (chars != null)
+				chars.append(c);
+			else if (surrogate != 0 && c >= Character.MIN_LOW_SURROGATE
+					&& c <= Character.MAX_SURROGATE) {
+				append(Character.toCodePoint(surrogate, c), null, bytes);
+				surrogate = 0;
+			} else {
+				flush(null, bytes);
+				if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE)
+					append(c, null, bytes);
+				else if (c <= Character.MAX_HIGH_SURROGATE)
+					surrogate = c;
+				else // Unpaired surrogate, which UTF-8 cannot represent
+					replace(null, bytes);
+			}
+		}
+	}
+
+	// Replaces a lead surrogate that was not followed by a tail surrogate
+	private void flush(StringBuilder chars, ByteBuffer bytes) {
+		if (surrogate != 0) {
+			surrogate = 0;
+			replace(chars, bytes);
+		}
+	}
+
+	private void octet(int b, StringBuilder chars, ByteBuffer bytes) {
+		if (remaining == 0) {
+			if ((b >>> 7) == 0) // 0xxxxxxx, 7 bits
+				append(b, chars, bytes);
+			else if ((b >>> 5) == 0x6) { // 110xxxxx, 11 bits
+				remaining = (octets = 2) - 1;
+				codepoint = (b & 0x1F) << 6;
+			} else if ((b >>> 4) == 0xE) { // 1110xxxx, 16 bits
+				remaining = (octets = 3) - 1;
+				codepoint = (b & 0xF) << 12;
+			} else if ((b >>> 3) == 0x1E) { // 11110xxx, 21 bits
+				remaining = (octets = 4) - 1;
+				codepoint = (b & 0x7) << 18;
+			} else if ((b >>> 2) == 0x3E) { // 111110xx, 26 bits
+				// Overlong for any code point, but try to process the
+				// whole sequence which will then be replaced
+				remaining = (octets = 5) - 1;
+				codepoint = (b & 0x3) << 24;
+			} else if ((b >>> 1) == 0x7E) { // 1111110x, 31 bits
+				// Overlong for any code point, but try to process the
+				// whole sequence which will then be replaced
+				remaining = (octets = 6) - 1;
+				codepoint = (b & 0x1) << 30;
+			} else
+				replace(chars, bytes);
+		} else if ((b >>> 6) == 0x2) { // 10xxxxxx
+			codepoint |= (b & 0x3F) << (6 * --remaining);
+			if (remaining == 0) {
+				if (codepoint <= 0x7F // octets > 1
+						|| (codepoint <= 0x7FF && octets > 2)
+						|| (codepoint <= Character.MAX_VALUE && octets > 3)
+						|| (codepoint <= Character.MAX_CODE_POINT && octets > 4)
+						// Overlong sequence (see RFC 3629)
+						|| (codepoint >= Character.MIN_SURROGATE && codepoint <= Character.MAX_SURROGATE)
+						// Is a surrogate and to be regarded as an error
+						|| codepoint > Character.MAX_CODE_POINT)
+					// Invalid codepoint > max
+					replace(chars, bytes);
+				else
+					append(codepoint, chars, bytes);
+			}
+		} else {
+			replace(chars, bytes);
+			remaining = 0;
+		}
+	}
+
+	private void replace(StringBuilder chars, ByteBuffer bytes) {
+		replacements++;
+		append(REPLACEMENT_CHARACTER, chars, bytes);
+	}
+
+	// Appends a code point, other than a surrogate, to either chars or bytes
+	private static void append(int codepoint, StringBuilder chars,
+			ByteBuffer bytes) {
+		if (chars != null)
+			chars.appendCodePoint(codepoint);
+		else if (codepoint <= 0x7F)
+			bytes.put((byte) codepoint);
+		else if (codepoint <= 0x7FF) {
+			bytes.put((byte) (0xC0 | (codepoint >>> 6)));
+			bytes.put((byte) (0x80 | (codepoint & 0x3F)));
+		} else if (codepoint <= Character.MAX_VALUE) {
+			bytes.put((byte) (0xE0 | (codepoint >>> 12)));
+			bytes.put((byte) (0x80 | ((codepoint >>> 6) & 0x3F)));
+			bytes.put((byte) (0x80 | (codepoint & 0x3F)));
+		} else {
+			bytes.put((byte) (0xF0 | (codepoint >>> 18)));
+			bytes.put((byte) (0x80 | ((codepoint >>> 12) & 0x3F)));
+			bytes.put((byte) (0x80 | ((codepoint >>> 6) & 0x3F)));
+			bytes.put((byte) (0x80 | (codepoint & 0x3F)));
+		}
+	}
+
+}
@@ -19,13 +19,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.charset.CharacterCodingException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 
-public abstract class Text {
+public abstract class Text implements Comparable<Text> {
 
 	private static final Charset CHARSET = Charset.forName("UTF-8");
 
@@ -47,12 +49,17 @@ public abstract class Text {
 		}
 	};
 
+	// Mostly ASCII text is copied directly up to the first non-ASCII byte or
+	// char, and only the rest goes through the UTF-8 coder
+
 	public static CharBuffer asCharBuffer(ByteBuffer text) {
-		try {
-			return localDecoder.get().decode(text);
-		} catch (CharacterCodingException e) {
-			throw new Error(e);
-		}
+		// Each byte decodes to at most one char, replacements included
+		final CharBuffer out = CharBuffer.allocate(text.remaining());
+		final CoderResult result = decode(text, out, true);
+		if (!result.isUnderflow())
+			throw new Error(result.toString());
+		out.flip();
+		return out;
 	}
 
 	public static ByteBuffer asByteBuffer(CharSequence text) {
@@ -60,11 +67,219 @@ public abstract class Text {
 	}
 
 	public static ByteBuffer asByteBuffer(CharBuffer text) {
-		try {
-			return localEncoder.get().encode(text);
-		} catch (CharacterCodingException e) {
-			throw new Error(e);
+		final long start = Metrics.ENABLED ? Metrics.start() : 0;
+		final int remaining = text.remaining(), ascii = ascii(text, remaining);
+		final ByteBuffer out = ByteBuffer.allocate(ascii == remaining ? ascii
+				: ascii + length(text.subSequence(ascii, remaining)));
+		copy(text, out, ascii);
+		if (ascii != remaining) {
+			final CoderResult result = transcode(text, out, true);
+			if (!result.isUnderflow())
+				throw new Error(result.toString());
+		}
+		out.flip();
+		if (Metrics.ENABLED)
+			Metrics.record(Metrics.Operation.TEXT_ENCODE, start,
+					out.remaining(), 0);
+		return out;
+	}
+
+	// Encodes a text that is already known to fit into a direct buffer from
+	// the pool, which the caller releases when done
+	public static ByteBuffer asByteBuffer(CharSequence text, BufferPool pool) {
+		final ByteBuffer out = pool.acquire(length(text));
+		final CoderResult result = encode(CharBuffer.wrap(text), out, true);
+		if (!result.isUnderflow())
+			throw new Error(result.toString());
+		out.flip();
+		return out;
+	}
+
+	// The number of bytes that text encodes to, with each unpaired surrogate
+	// replaced by one byte
+	public static int length(CharSequence text) {
+		final int length = text.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+			if (c < 0x80)
+				continue;
+			else if (c < 0x800)
+				bytes++;
+			else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				bytes += 2;
+				i++;
+			} else if (!Character.isSurrogate(c))
+				bytes += 2;
 		}
+		return bytes;
+	}
+
+	// Encodes or decodes as much as fits, like CharsetEncoder.encode and
+	// CharsetDecoder.decode, returning CoderResult.OVERFLOW if the output
+	// fills up and CoderResult.UNDERFLOW once the input has been used up. No
+	// state is kept between calls: a character or byte sequence that is cut
+	// off at the end of the input is left in the input (unless endOfInput is
+	// true, in which case it is replaced), so compact the input and append
+	// to it before the next call.
+
+	public static CoderResult encode(CharBuffer in, ByteBuffer out,
+			boolean endOfInput) {
+		if (!Metrics.ENABLED)
+			return transcode(in, out, endOfInput);
+		final long start = Metrics.start();
+		final int position = out.position();
+		final CoderResult result = transcode(in, out, endOfInput);
+		Metrics.record(Metrics.Operation.TEXT_ENCODE, start, out.position()
+				- position, 0);
+		return result;
+	}
+
+	public static CoderResult decode(ByteBuffer in, CharBuffer out,
+			boolean endOfInput) {
+		if (!Metrics.ENABLED)
+			return transcode(in, out, endOfInput);
+		final long start = Metrics.start();
+		final int position = in.position();
+		final CoderResult result = transcode(in, out, endOfInput);
+		Metrics.record(Metrics.Operation.TEXT_DECODE, start, in.position()
+				- position, 0);
+		return result;
+	}
+
+	private static CoderResult transcode(CharBuffer in, ByteBuffer out,
+			boolean endOfInput) {
+		copy(in, out, ascii(in, out.remaining()));
+		if (!in.hasRemaining())
+			return CoderResult.UNDERFLOW;
+		if (!out.hasRemaining())
+			return CoderResult.OVERFLOW;
+		final CharsetEncoder encoder = localEncoder.get();
+		encoder.reset();
+		CoderResult result = encoder.encode(in, out, endOfInput);
+		if (endOfInput && result.isUnderflow())
+			result = encoder.flush(out);
+		return result;
+	}
+
+	private static CoderResult transcode(ByteBuffer in, CharBuffer out,
+			boolean endOfInput) {
+		copy(in, out, ascii(in, out.remaining()));
+		if (!in.hasRemaining())
+			return CoderResult.UNDERFLOW;
+		if (!out.hasRemaining())
+			return CoderResult.OVERFLOW;
+		final CharsetDecoder decoder = localDecoder.get();
+		decoder.reset();
+		CoderResult result = decoder.decode(in, out, endOfInput);
+		if (endOfInput && result.isUnderflow())
+			result = decoder.flush(out);
+		return result;
+	}
+
+	// Returns the number of ASCII bytes before the first non-ASCII byte,
+	// testing the high bits of 8 bytes at a time. At most max bytes are
+	// scanned, so that a caller that transcodes into a small buffer again
+	// and again does not scan the rest of the input on every call
+	private static int ascii(ByteBuffer in, int max) {
+		final int start = in.position(), limit = start
+				+ Math.min(in.remaining(), max);
+		int i = start;
+		if (in.hasArray()) {
+			final byte[] array = in.array();
+			final int offset = in.arrayOffset();
+			for (; i + 8 <= limit; i += 8) {
+				final int j = offset + i;
+				if (((array[j] | array[j + 1] | array[j + 2] | array[j + 3]
+						| array[j + 4] | array[j + 5] | array[j + 6] | array[j + 7]) & 0x80) != 0)
+					break;
+			}
+			while (i < limit && array[offset + i] >= 0)
+				i++;
+		} else {
+			for (; i + 8 <= limit; i += 8)
+				if ((in.getLong(i) & 0x8080808080808080L) != 0)
+					break;
+			while (i < limit && in.get(i) >= 0)
+				i++;
+		}
+		return i - start;
+	}
+
+	private static int ascii(CharBuffer in, int max) {
+		final int start = in.position(), limit = start
+				+ Math.min(in.remaining(), max);
+		int i = start;
+		if (in.hasArray()) {
+			final char[] array = in.array();
+			final int offset = in.arrayOffset();
+			for (; i + 8 <= limit; i += 8) {
+				final int j = offset + i;
+				if ((array[j] | array[j + 1] | array[j + 2] | array[j + 3]
+						| array[j + 4] | array[j + 5] | array[j + 6] | array[j + 7]) >= 0x80)
+					break;
+			}
+			while (i < limit && array[offset + i] < 0x80)
+				i++;
+		} else {
+			for (; i + 8 <= limit; i += 8)
+				if ((in.get(i) | in.get(i + 1) | in.get(i + 2) | in.get(i + 3)
+						| in.get(i + 4) | in.get(i + 5) | in.get(i + 6) | in
+						.get(i + 7)) >= 0x80)
+					break;
+			while (i < limit && in.get(i) < 0x80)
+				i++;
+		}
+		return i - start;
+	}
+
+	// Copies length ASCII bytes or chars, advancing both buffers
+
+	private static void copy(ByteBuffer in, CharBuffer out, int length) {
+		if (in.hasArray() && out.hasArray()) {
+			final byte[] src = in.array();
+			final char[] dst = out.array();
+			final int i = in.arrayOffset() + in.position(), j = out
+					.arrayOffset() + out.position();
+			for (int n = 0; n < length; n++)
+				dst[j + n] = (char) src[i + n];
+			in.position(in.position() + length);
+			out.position(out.position() + length);
+		} else
+			for (int n = 0; n < length; n++)
+				out.put((char) in.get());
+	}
+
+	private static void copy(CharBuffer in, ByteBuffer out, int length) {
+		if (in.hasArray() && out.hasArray()) {
+			final char[] src = in.array();
+			final byte[] dst = out.array();
+			final int i = in.arrayOffset() + in.position(), j = out
+					.arrayOffset() + out.position();
+			for (int n = 0; n < length; n++)
+				dst[j + n] = (byte) src[i + n];
+			in.position(in.position() + length);
+			out.position(out.position() + length);
+		} else
+			for (int n = 0; n < length; n++)
+				out.put((byte) in.get());
+	}
+
+	// Writes all of the texts with as few calls as the channel allows,
+	// returning the number of bytes written
+	public static long writeTo(GatheringByteChannel out, Text... texts)
+			throws IOException {
+		final ByteBuffer[] buffers = new ByteBuffer[texts.length];
+		for (int i = 0; i < texts.length; i++)
+			buffers[i] = texts[i].toByteBuffer();
+		long written = 0;
+		for (int i = 0; i < buffers.length;)
+			if (!buffers[i].hasRemaining())
+				i++;
+			else
+				written += out.write(buffers, i, buffers.length - i);
+		return written;
 	}
 
 	public static Text valueOf(ByteBuffer text) {
@@ -79,6 +294,21 @@ public abstract class Text {
 			public ByteBuffer toByteBuffer() {
 				return byteBuffer.duplicate();
 			}
+
+			@Override
+			public int byteLength() {
+				return byteBuffer.remaining();
+			}
+
+			@Override
+			public Text memoize() {
+				return new Memo(null, byteBuffer.duplicate());
+			}
+
+			@Override
+			ByteBuffer utf8() {
+				return byteBuffer.duplicate();
+			}
 		};
 	}
 
@@ -94,6 +324,11 @@ public abstract class Text {
 			public ByteBuffer toByteBuffer() {
 				return asByteBuffer(charBuffer.duplicate());
 			}
+
+			@Override
+			public int byteLength() {
+				return length(charBuffer);
+			}
 		};
 	}
 
@@ -109,9 +344,114 @@ public abstract class Text {
 			public ByteBuffer toByteBuffer() {
 				return asByteBuffer(charBuffer.duplicate());
 			}
+
+			@Override
+			public int byteLength() {
+				return length(charBuffer);
+			}
 		};
 	}
 
+	// Unlike the valueOf factories, which transcode on every call that needs
+	// the other representation, these convert at most once and keep the
+	// result, along with the lengths
+	public static Text memoize(ByteBuffer text) {
+		return new Memo(null, text.duplicate());
+	}
+
+	public static Text memoize(CharSequence text) {
+		return new Memo(text.toString(), null);
+	}
+
+	private static final class Memo extends Text {
+
+		private volatile String string;
+
+		private volatile ByteBuffer byteBuffer;
+
+		private int byteLength = -1, hash;
+
+		private Memo(String string, ByteBuffer byteBuffer) {
+			this.string = string;
+			this.byteBuffer = byteBuffer;
+		}
+
+		@Override
+		public CharBuffer toCharBuffer() {
+			return CharBuffer.wrap(toString());
+		}
+
+		@Override
+		public ByteBuffer toByteBuffer() {
+			ByteBuffer byteBuffer = this.byteBuffer;
+			if (byteBuffer == null)
+				synchronized (this) {
+					if ((byteBuffer = this.byteBuffer) == null)
+						this.byteBuffer = byteBuffer = asByteBuffer(string);
+				}
+			return byteBuffer.duplicate();
+		}
+
+		@Override
+		public String toString() {
+			String string = this.string;
+			if (string == null)
+				synchronized (this) {
+					if ((string = this.string) == null)
+						this.string = string = asCharBuffer(
+								byteBuffer.duplicate()).toString();
+				}
+			return string;
+		}
+
+		@Override
+		public int length() {
+			return toString().length();
+		}
+
+		@Override
+		public int byteLength() {
+			// Racy but idempotent, like String.hashCode
+			int byteLength = this.byteLength;
+			if (byteLength < 0) {
+				final ByteBuffer byteBuffer = this.byteBuffer;
+				this.byteLength = byteLength = byteBuffer != null ? byteBuffer
+						.remaining() : length(string);
+			}
+			return byteLength;
+		}
+
+		@Override
+		public Text memoize() {
+			return this;
+		}
+
+		@Override
+		ByteBuffer utf8() {
+			final ByteBuffer byteBuffer = this.byteBuffer;
+			return byteBuffer != null ? byteBuffer.duplicate() : null;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.hash;
+			if (hash == 0)
+				this.hash = hash = super.hashCode();
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Memo) {
+				final int a = hash, b = ((Memo) obj).hash;
+				if (a != 0 && b != 0 && a != b)
+					return false;
+			}
+			return super.equals(obj);
+		}
+
+	}
+
 	private Text() {
 	}
 
@@ -119,9 +459,216 @@ public abstract class Text {
 
 	public abstract ByteBuffer toByteBuffer();
 
+	// The length in chars
+	public int length() {
+		return toCharBuffer().remaining();
+	}
+
+	// The length in UTF-8 bytes
+	public int byteLength() {
+		return toByteBuffer().remaining();
+	}
+
+	public Text memoize() {
+		return new Memo(toString(), null);
+	}
+
+	// Returns the UTF-8 bytes if that is what the text holds, or null if
+	// they would have to be encoded
+	ByteBuffer utf8() {
+		return null;
+	}
+
+	// Texts are equal, hashed and ordered by their UTF-8 bytes, compared as
+	// unsigned, which for valid UTF-8 is code point order. Char-backed texts
+	// are encoded as they are read, without allocating, so they compare with
+	// byte-backed ones without either being converted. As when encoding,
+	// unpaired surrogates count as '?'
+
+	@Override
+	public int hashCode() {
+		return hash(new Utf8(this));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof Text))
+			return false;
+		final Text other = (Text) obj;
+		final ByteBuffer a = utf8(), b = other.utf8();
+		if (a != null && b != null)
+			return a.equals(b);
+		return byteLength() == other.byteLength() && compareTo(other) == 0;
+	}
+
+	public int compareTo(Text other) {
+		return compare(new Utf8(this), new Utf8(other));
+	}
+
+	// The same hash and comparison for bytes and chars that are not (yet) in
+	// a Text (see InternPool)
+
+	static int hashCode(ByteBuffer bytes) {
+		return hash(new Utf8(bytes));
+	}
+
+	static int hashCode(CharSequence chars) {
+		return hash(new Utf8(chars));
+	}
+
+	final boolean contentEquals(ByteBuffer bytes) {
+		final ByteBuffer a = utf8();
+		if (a != null)
+			return a.equals(bytes);
+		return compare(new Utf8(this), new Utf8(bytes)) == 0;
+	}
+
+	final boolean contentEquals(CharSequence chars) {
+		return compare(new Utf8(this), new Utf8(chars)) == 0;
+	}
+
+	private static int hash(Utf8 in) {
+		int hash = 1;
+		for (int b; (b = in.next()) >= 0;)
+			hash = 31 * hash + b;
+		return hash;
+	}
+
+	private static int compare(Utf8 a, Utf8 b) {
+		for (;;) {
+			final int x = a.next(), y = b.next();
+			if (x != y)
+				return x - y; // The end, -1, comes first
+			if (x < 0)
+				return 0;
+		}
+	}
+
+	// Reads UTF-8 bytes one at a time, from bytes or encoded from chars,
+	// without changing the buffer or sequence
+	private static final class Utf8 {
+
+		private final ByteBuffer bytes;
+
+		private final CharSequence chars;
+
+		private int index;
+
+		private final int end;
+
+		private int pending, count; // Bytes of a char, lowest byte first
+
+		private Utf8(Text text) {
+			this(text.utf8(), text);
+		}
+
+		private Utf8(ByteBuffer bytes, Text text) {
+			this.bytes = bytes;
+			if (bytes != null) {
+				chars = null;
+				index = bytes.position();
+				end = bytes.limit();
+			} else {
+				chars = text.toCharBuffer();
+				end = chars.length();
+			}
+		}
+
+		private Utf8(ByteBuffer bytes) {
+			this(bytes, null);
+		}
+
+		private Utf8(CharSequence chars) {
+			bytes = null;
+			this.chars = chars;
+			end = chars.length();
+		}
+
+		private int next() {
+			if (bytes != null)
+				return index < end ? bytes.get(index++) & 0xFF : -1;
+			if (count > 0) {
+				final int b = pending & 0xFF;
+				pending >>>= 8;
+				count--;
+				return b;
+			}
+			if (index >= end)
+				return -1;
+			final char c = chars.charAt(index++);
+			if (c < 0x80)
+				return c;
+			int codepoint = c;
+			if (c < 0x800) {
+				pending = 0x80 | (c & 0x3F);
+				count = 1;
+				return 0xC0 | (c >>> 6);
+			}
+			if (Character.isHighSurrogate(c) && index < end
+					&& Character.isLowSurrogate(chars.charAt(index)))
+				codepoint = Character.toCodePoint(c, chars.charAt(index++));
+			else if (Character.isSurrogate(c))
+				return '?';
+			if (codepoint <= Character.MAX_VALUE) {
+				pending = (0x80 | ((c >>> 6) & 0x3F))
+						| (0x80 | (c & 0x3F)) << 8;
+				count = 2;
+				return 0xE0 | (c >>> 12);
+			}
+			pending = (0x80 | ((codepoint >>> 12) & 0x3F))
+					| (0x80 | ((codepoint >>> 6) & 0x3F)) << 8
+					| (0x80 | (codepoint & 0x3F)) << 16;
+			count = 3;
+			return 0xF0 | (codepoint >>> 18);
+		}
+
+	}
+
 	public void writeTo(OutputStream out) throws IOException {
-		ByteBuffer in = toByteBuffer();
-		out.write(in.array(), in.position(), in.remaining());
+		final ByteBuffer in = toByteBuffer();
+		if (in.hasArray()) {
+			out.write(in.array(), in.arrayOffset() + in.position(),
+					in.remaining());
+			return;
+		}
+		// Direct and read-only buffers have no accessible array
+		final byte[] bytes = new byte[Math.min(in.remaining(), 8192)];
+		while (in.hasRemaining()) {
+			final int length = Math.min(in.remaining(), bytes.length);
+			in.get(bytes, 0, length);
+			out.write(bytes, 0, length);
+		}
+	}
+
+	// Expects a blocking channel, as it keeps writing until all is written
+	public void writeTo(WritableByteChannel out) throws IOException {
+		final ByteBuffer in = toByteBuffer();
+		while (in.hasRemaining())
+			out.write(in);
+	}
+
+	// Encodes through the buffer, a chunk at a time, instead of encoding all
+	// of the text into a new buffer first
+	public void writeTo(WritableByteChannel out, ByteBuffer buffer)
+			throws IOException {
+		if (buffer.capacity() < 4)
+			throw new IllegalArgumentException("Buffer is too small");
+		final CharBuffer in = toCharBuffer();
+		final CharsetEncoder encoder = localEncoder.get();
+		encoder.reset();
+		boolean done = false;
+		while (!done) {
+			buffer.clear();
+			CoderResult result = encoder.encode(in, buffer, true);
+			if (result.isUnderflow())
+				done = encoder.flush(buffer).isUnderflow();
+			buffer.flip();
+			while (buffer.hasRemaining())
+				out.write(buffer);
+		}
+		buffer.clear();
 	}
 
 	@Override
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// UTF-8 text in a file, read through memory mapping instead of being loaded
+// onto the heap. Slices are byte-backed Texts (see Text.valueOf(ByteBuffer))
+// over the mapped memory, so nothing is copied or decoded until a slice is
+// read as chars. Files larger than a single mapping are mapped in regions
+// that start every half region and so overlap by half; any slice of up to
+// half a region lies within one of them, and only longer slices that cross
+// a region boundary are copied.
+public final class TextFile {
+
+	private static final int REGION_SIZE = 1 << 30;
+
+	private final long size;
+
+	private final int half;
+
+	private final ByteBuffer[] regions;
+
+	public TextFile(FileChannel channel) throws IOException {
+		this(channel, 0, channel.size(), REGION_SIZE);
+	}
+
+	public TextFile(FileChannel channel, long position, long size)
+			throws IOException {
+		this(channel, position, size, REGION_SIZE);
+	}
+
+	public TextFile(FileChannel channel, long position, long size,
+			int regionSize) throws IOException {
+		if ((position | size) < 0 || regionSize < 2)
+			throw new IllegalArgumentException();
+		this.size = size;
+		half = regionSize / 2;
+		final long count = size <= 2L * half ? 1 : (size - half - 1) / half
+				+ 1;
+		if (count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many regions");
+		regions = new ByteBuffer[(int) count];
+		for (int i = 0; i < regions.length; i++) {
+			final long start = (long) i * half;
+			regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position
+					+ start, Math.min(2L * half, size - start));
+		}
+	}
+
+	// The size in bytes
+	public long size() {
+		return size;
+	}
+
+	public Text slice(long offset, int length) {
+		if ((offset | length) < 0 || offset + length > size)
+			throw new IndexOutOfBoundsException();
+		final int i = region(offset);
+		final long start = (long) i * half;
+		final ByteBuffer region = regions[i];
+		if (offset + length <= start + region.capacity()) {
+			final ByteBuffer slice = region.duplicate();
+			slice.position((int) (offset - start));
+			slice.limit(slice.position() + length);
+			return Text.valueOf(slice.slice());
+		}
+		final ByteBuffer copy = ByteBuffer.allocate(length);
+		for (long o = offset; copy.hasRemaining();) {
+			final int j = region(o);
+			final ByteBuffer from = regions[j].duplicate();
+			from.position((int) (o - (long) j * half));
+			if (from.remaining() > copy.remaining())
+				from.limit(from.position() + copy.remaining());
+			o += from.remaining();
+			copy.put(from);
+		}
+		copy.flip();
+		return Text.valueOf(copy);
+	}
+
+	// Returns the offset of the first b at or after from, or -1
+	public long indexOf(byte b, long from) {
+		// Bytes equal to b become zero, which is found 8 at a time
+		final long pattern = (b & 0xFFL) * 0x0101010101010101L;
+		while (from < size) {
+			final int i = region(from);
+			final long start = (long) i * half;
+			final ByteBuffer region = regions[i];
+			final int limit = region.capacity();
+			int j = (int) (from - start);
+			for (; j + 8 <= limit; j += 8) {
+				final long x = region.getLong(j) ^ pattern;
+				if (((x - 0x0101010101010101L) & ~x & 0x8080808080808080L) != 0)
+					break;
+			}
+			for (; j < limit; j++)
+				if (region.get(j) == b)
+					return start + j;
+			from = start + limit;
+		}
+		return -1;
+	}
+
+	// Lines end with "\n" or "\r\n", which is not part of the slices; a
+	// final line break does not start another, empty line
+	public Iterable<Text> lines() {
+		return records((byte) '\n', true);
+	}
+
+	public Iterable<Text> records(byte delimiter) {
+		return records(delimiter, false);
+	}
+
+	private Iterable<Text> records(final byte delimiter, final boolean lines) {
+		return new Iterable<Text>() {
+			@Override
+			public Iterator<Text> iterator() {
+				return new Iterator<Text>() {
+					private long offset;
+
+					@Override
+					public boolean hasNext() {
+						return offset < size;
+					}
+
+					@Override
+					public Text next() {
+						if (offset >= size)
+							throw new NoSuchElementException();
+						long end = indexOf(delimiter, offset);
+						final long next = end < 0 ? size : end + 1;
+						if (end < 0)
+							end = size;
+						if (lines && end > offset && byteAt(end - 1) == '\r')
+							end--;
+						if (end - offset > Integer.MAX_VALUE)
+							throw new IllegalStateException("Record is too long");
+						final Text text = slice(offset, (int) (end - offset));
+						offset = next;
+						return text;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private byte byteAt(long offset) {
+		final int i = region(offset);
+		return regions[i].get((int) (offset - (long) i * half));
+	}
+
+	private int region(long offset) {
+		return (int) Math.min(offset / half, regions.length - 1);
+	}
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding;
+
+import static jdk.incubator.vector.VectorOperators.EQ;
+import static jdk.incubator.vector.VectorOperators.GE;
+import static jdk.incubator.vector.VectorOperators.LE;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+// The Java 17 version of BinaryVectors (see the portable version in
+// src/main/java). An incubating module is only resolved if asked for, so the
+// vector code is in a nested class, which is loaded only if the module is
+// there; otherwise nothing is done and Binary falls back to scalar code.
+final class BinaryVectors {
+
+	static final boolean ENABLED = ModuleLayer.boot()
+			.findModule("jdk.incubator.vector").isPresent();
+
+	static int encode(byte[] in, int i, int end, char[] out, int j) {
+		return ENABLED ? Vectors.encode(in, i, end, out, j) : 0;
+	}
+
+	static int encode(byte[] in, int i, int end, byte[] out, int j) {
+		return ENABLED ? Vectors.encode(in, i, end, out, j) : 0;
+	}
+
+	static int decode(char[] in, int i, int end, byte[] out, int j) {
+		return ENABLED ? Vectors.decode(in, i, end, out, j) : 0;
+	}
+
+	// All vectors have the preferred shape, of n bytes (n / 2 shorts, n / 4
+	// ints and n / 8 longs). Lanes are laid out in memory order, that is, a
+	// byte vector reinterpreted as ints is read as little-endian ints
+	private static final class Vectors {
+
+		static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+		static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+		static final int N = BYTES.length();
+
+		// Spreads each block of 3 bytes into an int lane as b0 << 16 |
+		// b1 << 8 | b2, with anything in the top 8 bits
+		static final VectorShuffle<Byte> SPREAD;
+
+		// Gathers the 3 bytes of each long lane, b0 << 16 | b1 << 8 | b2,
+		// into consecutive blocks at the start of the vector
+		static final VectorShuffle<Byte> GATHER;
+
+		static {
+			final int[] spread = new int[N], gather = new int[N];
+			for (int k = 0; k < N; k++) {
+				spread[k] = 3 * (k / 4) + (k % 4 < 3 ? 2 - k % 4 : 0);
+				gather[k] = k < 3 * (N / 8) ? 8 * (k / 3) + 2 - k % 3 : 0;
+			}
+			SPREAD = VectorShuffle.fromArray(BYTES, spread, 0);
+			GATHER = VectorShuffle.fromArray(BYTES, gather, 0);
+		}
+
+		// 3 * N / 4 bytes to N digits per vector; each vector reads N bytes,
+		// which must be within the input
+		static int encode(byte[] in, int start, int end, char[] out, int j) {
+			int i = start;
+			for (; end - i >= N; i += 3 * N / 4, j += N) {
+				final ByteVector digits = digits(in, i);
+				((ShortVector) digits.convertShape(VectorOperators.B2S,
+						SHORTS, 0)).intoCharArray(out, j);
+				((ShortVector) digits.convertShape(VectorOperators.B2S,
+						SHORTS, 1)).intoCharArray(out, j + N / 2);
+			}
+			return i - start;
+		}
+
+		static int encode(byte[] in, int start, int end, byte[] out, int j) {
+			int i = start;
+			for (; end - i >= N; i += 3 * N / 4, j += N)
+				digits(in, i).intoArray(out, j);
+			return i - start;
+		}
+
+		private static ByteVector digits(byte[] in, int i) {
+			final IntVector bits = ByteVector.fromArray(BYTES, in, i)
+					.rearrange(SPREAD).reinterpretAsInts();
+			// The 4 6-bit values of each block, in memory order
+			final IntVector values = bits.lanewise(LSHR, 18).and(0x3F)
+					.or(bits.lanewise(LSHR, 4).and(0x3F00))
+					.or(bits.lanewise(LSHL, 10).and(0x3F0000))
+					.or(bits.lanewise(LSHL, 24).and(0x3F000000));
+			final ByteVector v = values.reinterpretAsBytes();
+			// A-Z, a-z, 0-9, -, _ (see Binary.BASE64_DIGITS)
+			return v.add(ByteVector.broadcast(BYTES, (byte) 'A')
+					.blend((byte) ('a' - 26), v.compare(GE, (byte) 26))
+					.blend((byte) ('0' - 52), v.compare(GE, (byte) 52))
+					.blend((byte) ('-' - 62), v.compare(EQ, (byte) 62))
+					.blend((byte) ('_' - 63), v.compare(EQ, (byte) 63)));
+		}
+
+		// N / 2 digits to 3 * N / 8 bytes per vector; each vector writes N
+		// bytes, which must be within the output
+		static int decode(char[] in, int start, int end, byte[] out, int j) {
+			final int limit = j + Binary.decodedLength(end - start);
+			int i = start;
+			for (; end - i >= N / 2 && limit - j >= N; i += N / 2,
+					j += 3 * N / 8) {
+				final ShortVector c = ShortVector.fromCharArray(SHORTS, in, i);
+				final VectorMask<Short> upper = c.compare(GE, (short) 'A').and(
+						c.compare(LE, (short) 'Z'));
+				final VectorMask<Short> lower = c.compare(GE, (short) 'a').and(
+						c.compare(LE, (short) 'z'));
+				final VectorMask<Short> digit = c.compare(GE, (short) '0').and(
+						c.compare(LE, (short) '9'));
+				final VectorMask<Short> dash = c.compare(EQ, (short) '-');
+				final VectorMask<Short> underscore = c.compare(EQ, (short) '_');
+				if (!upper.or(lower).or(digit).or(dash).or(underscore)
+						.allTrue())
+					break;
+				final LongVector v = c.add(
+						ShortVector.zero(SHORTS)
+								.blend((short) -'A', upper)
+								.blend((short) (26 - 'a'), lower)
+								.blend((short) (52 - '0'), digit)
+								.blend((short) (62 - '-'), dash)
+								.blend((short) (63 - '_'), underscore))
+						.reinterpretAsLongs();
+				// The 4 6-bit values of each block, first digit first
+				final LongVector bits = v.and(0x3F).lanewise(LSHL, 18)
+						.or(v.lanewise(LSHR, 4).and(0x3F << 12))
+						.or(v.lanewise(LSHR, 26).and(0x3F << 6))
+						.or(v.lanewise(LSHR, 48).and(0x3F));
+				bits.reinterpretAsBytes().rearrange(GATHER).intoArray(out, j);
+			}
+			return i - start;
+		}
+
+	}
+
+	private BinaryVectors() {
+	}
+
+}
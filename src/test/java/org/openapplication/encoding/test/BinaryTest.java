@@ -0,0 +1,408 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.openapplication.encoding.Binary;
+import org.openapplication.encoding.BinaryInputStream;
+import org.openapplication.encoding.BinaryOutputStream;
+import org.openapplication.encoding.OrderedBase64;
+
+public class BinaryTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testRfc4648Vectors() {
+		// RFC 4648 section 10, without the padding characters
+		String[][] vectors = { { "", "" }, { "f", "Zg" }, { "fo", "Zm8" },
+				{ "foo", "Zm9v" }, { "foob", "Zm9vYg" },
+				{ "fooba", "Zm9vYmE" }, { "foobar", "Zm9vYmFy" } };
+		for (String[] vector : vectors) {
+			byte[] bytes = vector[0].getBytes(UTF_8);
+			assertEquals(vector[1], Binary.asString(bytes));
+			assertArrayEquals(bytes, Binary.asByteArray(vector[1]));
+		}
+	}
+
+	@Test
+	public void testUrlSafeDigits() {
+		byte[] bytes = { (byte) 0xFB, (byte) 0xEF, (byte) 0xFF };
+		assertEquals("--__", Binary.asString(bytes));
+		assertArrayEquals(bytes, Binary.asByteArray("--__"));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(0);
+		for (int length = 0; length < 256; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			char[] chars = Binary.asCharArray(bytes);
+			assertEquals((length * 8 + 5) / 6, chars.length);
+			assertTrue(Binary.isBinary(new String(chars)));
+			assertArrayEquals(bytes, Binary.asByteArray(new String(chars)));
+		}
+	}
+
+	@Test
+	public void testIntoArrays() {
+		byte[] bytes = "foobar".getBytes(UTF_8);
+		char[] chars = new char[10];
+		assertEquals(7, Binary.encodedLength(5));
+		assertEquals(7, Binary.asCharArray(bytes, 1, 5, chars, 2));
+		assertEquals("b29iYXI", new String(chars, 2, 7));
+
+		byte[] decoded = new byte[6];
+		assertEquals(5, Binary.decodedLength(7));
+		assertEquals(5, Binary.asByteArray(chars, 2, 7, decoded, 1));
+		assertEquals("oobar", new String(decoded, 1, 5, UTF_8));
+	}
+
+	@Test
+	public void testIntoDirectBuffers() {
+		ByteBuffer bytes = ByteBuffer.allocateDirect(6);
+		bytes.put("foobar".getBytes(UTF_8)).flip();
+		ByteBuffer ascii = ByteBuffer.allocateDirect(8);
+		assertEquals(8, Binary.asAsciiBuffer(bytes, ascii));
+		assertFalse(bytes.hasRemaining());
+		assertFalse(ascii.hasRemaining());
+
+		CharBuffer chars = CharBuffer.wrap("Zm9vYmFy");
+		ByteBuffer decoded = ByteBuffer.allocateDirect(6);
+		assertEquals(6, Binary.asByteBuffer(chars, decoded));
+		decoded.flip();
+		assertEquals(ByteBuffer.wrap("foobar".getBytes(UTF_8)), decoded);
+	}
+
+	@Test(expected = BufferOverflowException.class)
+	public void testBufferOverflow() {
+		Binary.asCharBuffer(ByteBuffer.allocate(6), CharBuffer.allocate(7));
+	}
+
+	@Test
+	public void testStreams() throws IOException {
+		Random random = new Random(0);
+		byte[] bytes = new byte[100000];
+		random.nextBytes(bytes);
+
+		StringWriter writer = new StringWriter();
+		BinaryOutputStream out = new BinaryOutputStream(writer);
+		for (int i = 0, n; i < bytes.length; i += n) {
+			n = Math.min(random.nextInt(10000), bytes.length - i);
+			out.write(bytes, i, n);
+		}
+		out.close();
+		assertEquals(Binary.asString(bytes), writer.toString());
+
+		BinaryInputStream in = new BinaryInputStream(new StringReader(
+				writer.toString()));
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		for (int n; (n = in.read(buffer, 0, random.nextInt(1000))) >= 0;)
+			decoded.write(buffer, 0, n);
+		in.close();
+		assertArrayEquals(bytes, decoded.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void testStreamNonZeroPadding() throws IOException {
+		BinaryInputStream in = new BinaryInputStream(new StringReader("Zm9vYh"));
+		while (in.read() >= 0)
+			;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonZeroPadding() {
+		Binary.asByteArray("Zh");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForbiddenCharacter() {
+		Binary.asByteArray("Zm9+");
+	}
+
+	@Test
+	public void testBlocks() {
+		// Compares against encoding one bit at a time, at every length and
+		// alignment around the 6 byte and 8 digit blocks
+		Random random = new Random(1);
+		for (int length = 0; length < 100; length++) {
+			byte[] bytes = new byte[length + 3];
+			random.nextBytes(bytes);
+			String expected = reference(bytes, 3, length);
+			byte[] binary = Arrays.copyOfRange(bytes, 3, 3 + length);
+			char[] chars = new char[expected.length() + 1];
+			Binary.asCharArray(bytes, 3, length, chars, 1);
+			assertEquals(expected, new String(chars, 1, expected.length()));
+			byte[] ascii = new byte[expected.length() + 2];
+			Binary.asAsciiArray(bytes, 3, length, ascii, 2);
+			assertEquals(expected, new String(ascii, 2, expected.length(),
+					UTF_8));
+			assertArrayEquals(binary, Binary.asByteArray(expected));
+			byte[] out = new byte[length + 1];
+			assertEquals(length, Binary.asByteArray(chars, 1,
+					expected.length(), out, 1));
+			assertArrayEquals(binary, Arrays.copyOfRange(out, 1, length + 1));
+			for (int i = 0; i < expected.length(); i++) {
+				StringBuilder forbidden = new StringBuilder(expected);
+				forbidden.setCharAt(i, i % 2 == 0 ? '+' : '\u00C5');
+				try {
+					Binary.asByteArray(forbidden);
+					fail();
+				} catch (IllegalArgumentException e) {
+				}
+				char[] forbiddenChars = forbidden.toString().toCharArray();
+				try {
+					Binary.asByteArray(forbiddenChars, 0,
+							forbiddenChars.length, out, 0);
+					fail();
+				} catch (IllegalArgumentException e) {
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testVectors() throws Exception {
+		// The Java 17 classes encode and decode whole vectors with the Vector
+		// API when it is present; the build runs the tests against them with
+		// this property set (see the java17 profile)
+		if (Boolean.getBoolean("org.openapplication.encoding.test.vectors")) {
+			Field enabled = Class.forName(
+					"org.openapplication.encoding.BinaryVectors")
+					.getDeclaredField("ENABLED");
+			enabled.setAccessible(true);
+			assertTrue(enabled.getBoolean(null));
+		}
+		// Inputs long enough for several vectors, at any alignment, with
+		// guard bytes and chars around the output to catch stray stores
+		Random random = new Random(4);
+		for (int n = 0; n < 500; n++) {
+			int length = n < 300 ? n : random.nextInt(3000);
+			int offset = random.nextInt(8);
+			byte[] bytes = new byte[offset + length + random.nextInt(8)];
+			random.nextBytes(bytes);
+			String expected = reference(bytes, offset, length);
+			char[] chars = new char[expected.length() + 16];
+			Arrays.fill(chars, '*');
+			assertEquals(expected.length(), Binary.asCharArray(bytes, offset,
+					length, chars, 8));
+			assertEquals("********" + expected + "********", new String(
+					chars));
+			byte[] ascii = new byte[expected.length() + 16];
+			Arrays.fill(ascii, (byte) '*');
+			assertEquals(expected.length(), Binary.asAsciiArray(bytes, offset,
+					length, ascii, 8));
+			assertEquals("********" + expected + "********", new String(
+					ascii, UTF_8));
+
+			byte[] out = new byte[length + 16];
+			Arrays.fill(out, (byte) 42);
+			assertEquals(length, Binary.asByteArray(chars, 8,
+					expected.length(), out, 8));
+			for (int i = 0; i < out.length; i++)
+				assertEquals(i < 8 || i >= 8 + length ? 42 : bytes[offset + i
+						- 8], out[i]);
+
+			if (expected.length() > 0) {
+				int i = random.nextInt(expected.length());
+				char forbidden = "+/=*\u00C5\u0100\uFFFF".charAt(random
+						.nextInt(7));
+				chars[8 + i] = forbidden;
+				try {
+					Binary.asByteArray(chars, 8, expected.length(), out, 8);
+					fail();
+				} catch (IllegalArgumentException e) {
+					assertEquals("Invalid Base64: forbidden character: U+"
+							+ Integer.toHexString(forbidden), e.getMessage());
+				}
+			}
+		}
+	}
+
+	// Encodes one bit at a time
+	private static String reference(byte[] bytes, int offset, int length) {
+		String digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		StringBuilder builder = new StringBuilder();
+		for (int bit = 0; bit < length * 8; bit += 6) {
+			int digit = 0;
+			for (int n = bit; n < bit + 6; n++)
+				digit = (digit << 1)
+						| (n < length * 8 ? (bytes[offset + n / 8] >>> (7 - n % 8)) & 1
+								: 0);
+			builder.append(digits.charAt(digit));
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testOrdered() {
+		Random random = new Random(2);
+		for (int length = 0; length < 40; length++) {
+			byte[] a = new byte[length], b = new byte[length];
+			for (int n = 0; n < 20; n++) {
+				random.nextBytes(a);
+				random.nextBytes(b);
+				if (length > 1 && n % 2 == 0)
+					System.arraycopy(a, 0, b, 0, length - 1);
+				String ordered = OrderedBase64.asString(a);
+				assertTrue(OrderedBase64.isOrdered(ordered));
+				assertArrayEquals(a, OrderedBase64.asByteArray(ordered));
+				assertEquals(Binary.asString(a), OrderedBase64
+						.toBinary(ordered));
+				assertEquals(ordered, OrderedBase64.fromBinary(Binary
+						.asString(a)));
+				byte[] ascii = new byte[ordered.length() + 1];
+				assertEquals(ordered.length(), OrderedBase64.asAsciiArray(a,
+						0, length, ascii, 1));
+				assertEquals(ordered, new String(ascii, 1, ordered.length(),
+						UTF_8));
+				assertEquals(Integer.signum(compareUnsigned(a, b)), Integer
+						.signum(ordered.compareTo(OrderedBase64.asString(b))));
+			}
+		}
+		assertFalse(OrderedBase64.isOrdered("-"));
+		assertFalse(OrderedBase64.isOrdered("-1"));
+		try {
+			OrderedBase64.asByteArray("--+-");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			OrderedBase64.fromBinary("Zm9+");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static int compareUnsigned(byte[] a, byte[] b) {
+		for (int i = 0; i < a.length; i++)
+			if (a[i] != b[i])
+				return (a[i] & 0xFF) - (b[i] & 0xFF);
+		return 0;
+	}
+
+	@Test
+	public void testMemoize() {
+		byte[] bytes = "foobar".getBytes(UTF_8);
+		char[] chars = Binary.asCharArray(bytes);
+		Binary[] binaries = { Binary.valueOf(bytes), Binary.valueOf(chars),
+				Binary.memoize(bytes.clone()), Binary.memoize(chars.clone()),
+				Binary.copyOf(bytes), Binary.copyOf(chars),
+				Binary.valueOf(chars).memoize() };
+		for (Binary a : binaries) {
+			assertEquals("Zm9vYmFy", a.toString());
+			assertArrayEquals(bytes, a.toByteArray());
+			for (Binary b : binaries) {
+				assertEquals(a, b);
+				assertEquals(a.hashCode(), b.hashCode());
+				assertEquals(0, a.compareTo(b));
+			}
+		}
+
+		Binary memo = Binary.memoize(chars);
+		assertSame(memo.toString(), memo.toString());
+		assertSame(memo.toByteArray(), memo.toByteArray());
+		assertSame(chars, memo.toCharArray());
+
+		// Copies are not affected by changes on either side
+		byte[] source = bytes.clone();
+		Binary copy = Binary.copyOf(source);
+		source[0] = 'x';
+		copy.toByteArray()[1] = 'x';
+		assertArrayEquals(bytes, copy.toByteArray());
+		assertEquals("Zm9vYmFy", copy.toString());
+
+		assertTrue(Binary.valueOf(new byte[] { 1 }).compareTo(
+				Binary.valueOf(new byte[] { (byte) 0x80 })) < 0);
+		assertTrue(Binary.valueOf(new byte[] { 1 }).compareTo(
+				Binary.valueOf(new byte[] { 1, 0 })) < 0);
+		assertFalse(Binary.memoize(new byte[] { 1 }).equals(
+				Binary.memoize(new byte[] { 2 })));
+	}
+
+	@Test
+	public void testTryDecode() {
+		Random random = new Random(0);
+		String digits = "AZaz09-_+/=\u00C5";
+		for (int n = 0; n < 2000; n++) {
+			StringBuilder builder = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int i = 0; i < length; i++)
+				builder.append(random.nextInt(8) == 0 ? digits.charAt(random
+						.nextInt(digits.length())) : Binary.asChar((byte) random
+						.nextInt(64)));
+			String binary = builder.toString();
+
+			// asByteArray also takes a lone trailing 'A', as no bytes
+			byte[] expected;
+			try {
+				expected = length % 4 == 1 ? null : Binary.asByteArray(binary);
+			} catch (IllegalArgumentException e) {
+				expected = null;
+			}
+			assertEquals(expected != null, Binary.isBinary(binary));
+			char[] chars = ("xy" + binary).toCharArray();
+			assertEquals(expected != null, Binary.isBinary(chars, 2, length));
+			ByteBuffer ascii = ByteBuffer.wrap(binary.getBytes(UTF_8));
+			assertEquals(expected != null, Binary.isBinaryAscii(ascii));
+
+			byte[] out = new byte[Binary.decodedLength(length) + 1];
+			int result = Binary.tryDecode(binary, 0, length, out, 1);
+			int charsResult = Binary.tryDecode(chars, 2, length, out, 1);
+			assertEquals(result, charsResult);
+			if (expected == null) {
+				assertTrue(result < 0);
+				assertNull(Binary.tryAsByteArray(binary));
+			} else {
+				assertEquals(expected.length, result);
+				assertArrayEquals(expected, Arrays.copyOfRange(out, 1,
+						result + 1));
+				assertArrayEquals(expected, Binary.tryAsByteArray(binary));
+			}
+			if (binary.length() == ascii.remaining()) { // If all ASCII
+				ByteBuffer bytes = ByteBuffer.allocate(out.length);
+				assertEquals(result, Binary.tryDecodeAscii(ascii, bytes));
+				assertEquals(expected != null ? expected.length : 0,
+						bytes.position());
+				assertEquals(expected == null, ascii.hasRemaining()
+						&& length > 0);
+			}
+		}
+		assertEquals(Binary.INVALID_LENGTH, Binary.tryDecode("Zm9vY", 0, 5,
+				new byte[3], 0));
+		assertEquals(Binary.NON_ZERO_PADDING, Binary.tryDecode("Zh", 0, 2,
+				new byte[1], 0));
+		assertEquals(Binary.INVALID_CHARACTER, Binary.tryDecode("Zm9+", 0,
+				4, new byte[3], 0));
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.openapplication.encoding.Id;
+import org.openapplication.encoding.IdIntMap;
+import org.openapplication.encoding.IdLongMap;
+import org.openapplication.encoding.IdMap;
+import org.openapplication.encoding.IdSet;
+
+public class IdTableTest {
+
+	@Test
+	public void testHeapAgainstHashMap() {
+		testAgainstHashMap(false);
+	}
+
+	@Test
+	public void testDirectAgainstHashMap() {
+		testAgainstHashMap(true);
+	}
+
+	private void testAgainstHashMap(boolean direct) {
+		Random random = new Random(0);
+		// Few distinct IDs, including the nil ID, so that removals hit
+		UUID[] uuids = new UUID[1000];
+		for (int i = 1; i < uuids.length; i++)
+			uuids[i] = new UUID(random.nextLong(), random.nextLong());
+		uuids[0] = new UUID(0, 0);
+
+		Map<UUID, Integer> expected = new HashMap<UUID, Integer>();
+		IdMap<Integer> map = new IdMap<Integer>(0, direct);
+		IdLongMap longs = new IdLongMap(0, direct, -1);
+		IdIntMap ints = new IdIntMap(0, direct, -1);
+		IdSet set = new IdSet(0, direct);
+		for (int i = 0; i < 100000; i++) {
+			UUID uuid = uuids[random.nextInt(uuids.length)];
+			Integer previous = expected.get(uuid);
+			int p = previous == null ? -1 : previous;
+			if (random.nextInt(3) == 0) {
+				expected.remove(uuid);
+				assertEquals(previous, map.remove(uuid));
+				assertEquals(p, longs.remove(uuid));
+				assertEquals(p, ints.remove(uuid));
+				assertEquals(previous != null, set.remove(uuid));
+			} else {
+				expected.put(uuid, i);
+				assertEquals(previous, map.put(uuid, i));
+				assertEquals(p, longs.put(uuid, i));
+				assertEquals(p, ints.put(uuid, i));
+				assertEquals(previous == null, set.add(uuid));
+			}
+			assertEquals(expected.size(), map.size());
+			assertEquals(expected.size(), set.size());
+		}
+		for (UUID uuid : uuids) {
+			Integer value = expected.get(uuid);
+			assertEquals(value, map.get(uuid));
+			assertEquals(value == null ? -1 : value, longs.get(uuid));
+			assertEquals(value == null ? -1 : value, ints.get(Id.valueOf(uuid)));
+			assertEquals(value != null, set.contains(uuid));
+		}
+		assertEquals(2 * expected.size(), set.keys().length);
+	}
+
+	@Test
+	public void testLookupForms() {
+		UUID uuid = UUID.fromString("03d73148-e422-4c57-a25b-bd4be247ef33");
+		IdSet set = new IdSet();
+		assertTrue(set.add(uuid));
+		assertFalse(set.add(Id.valueOf(uuid)));
+		assertTrue(set.contains(uuid.getMostSignificantBits(),
+				uuid.getLeastSignificantBits()));
+		assertTrue(set.contains(Id.asByteArray(uuid)));
+		assertTrue(set.contains(Id.asString(uuid)));
+		assertFalse(set.contains(uuid.toString()));
+		assertFalse(set.contains("A9cxSOQiTFeJbvUviR-8+"));
+		assertArrayEquals(new long[] { uuid.getMostSignificantBits(),
+				uuid.getLeastSignificantBits() }, set.keys());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(uuid));
+		assertTrue(Arrays.equals(new long[0], set.keys()));
+	}
+
+	@Test
+	public void testGrow() {
+		IdLongMap map = new IdLongMap(0, true, 0);
+		for (long i = 1; i <= 100000; i++)
+			map.put(i, -i, i);
+		assertEquals(100000, map.size());
+		for (long i = 1; i <= 100000; i++)
+			assertEquals(i, map.get(i, -i));
+	}
+
+	@Test
+	public void testIntValues() {
+		// Full-range values, kept apart from the IDs, through growth,
+		// removals and clearing, on-heap and off-heap
+		for (IdIntMap map : new IdIntMap[] { new IdIntMap(1000),
+				new IdIntMap(0, true, 0) }) {
+			for (int i = 1; i <= 100000; i++)
+				map.put(i, -i, i * 0x9E3779B9);
+			for (int i = 1; i <= 100000; i += 2)
+				assertEquals(i * 0x9E3779B9, map.remove(i, -i));
+			assertEquals(50000, map.size());
+			for (int i = 1; i <= 100000; i++)
+				assertEquals(i % 2 == 0 ? i * 0x9E3779B9 : 0, map.get(i, -i));
+			map.clear();
+			assertEquals(0, map.get(2, -2));
+			assertEquals(0, map.put(2, -2, Integer.MIN_VALUE));
+			assertEquals(Integer.MIN_VALUE, map.get(2, -2));
+		}
+		IdLongMap longs = new IdLongMap(1000);
+		longs.put(1, -1, Long.MIN_VALUE);
+		assertEquals(Long.MIN_VALUE, longs.get(1, -1));
+	}
+
+}
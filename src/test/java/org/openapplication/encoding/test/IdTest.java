@@ -17,8 +17,17 @@ package org.openapplication.encoding.test;
 
 import static org.junit.Assert.*;
 
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
 import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.After;
@@ -26,6 +35,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openapplication.encoding.Binary;
 import org.openapplication.encoding.Id;
+import org.openapplication.encoding.IdArrays;
+import org.openapplication.encoding.IdCache;
+import org.openapplication.encoding.IdGenerator;
+import org.openapplication.encoding.OrderedBase64;
+import org.openapplication.encoding.PercentDecoder;
 
 
 public class IdTest {
@@ -107,4 +121,513 @@ public class IdTest {
 
 	}
 
+	@Test
+	public void testTryParse() {
+		UUID uuid = UUID.fromString("03d73148-e422-4c57-a25b-bd4be247ef33");
+		String[] forms = { Id.asString(uuid),
+				Binary.asString(Id.asByteArray(uuid)), uuid.toString(),
+				uuid.toString().toUpperCase() };
+		long[] bits = new long[3];
+		for (String form : forms) {
+			assertEquals(uuid, Id.asUuid(form));
+			assertTrue(Id.tryParse(form, bits, 1));
+			assertEquals(uuid.getMostSignificantBits(), bits[1]);
+			assertEquals(uuid.getLeastSignificantBits(), bits[2]);
+
+			char[] chars = ("[" + form + "]").toCharArray();
+			assertEquals(uuid, Id.asUuid(chars, 1, form.length()));
+
+			ByteBuffer ascii = ByteBuffer.wrap(form.getBytes(Charset
+					.forName("US-ASCII")));
+			assertTrue(Id.tryParseAscii(ascii, bits, 0));
+			assertFalse(ascii.hasRemaining());
+			assertEquals(uuid, new UUID(bits[0], bits[1]));
+		}
+	}
+
+	@Test
+	public void testTryParseInvalid() {
+		String compact = "A9cxSOQiTFeiW71L4kfvM"; // 21 characters
+		String[] invalid = { "", compact.substring(1),
+				compact.substring(1) + "+", // Forbidden character
+				compact + "z", // Non-zero bits in padding
+				"03d73148-e422-4c57-a25b-bd4be247ef3g",
+				"03d73148-e422-4c57-a25b+bd4be247ef33",
+				"03d73148-e422-4c57-a25b-bd4be247ef3\u00e9" };
+		long[] bits = new long[2];
+		for (String form : invalid) {
+			assertFalse(form, Id.tryParse(form, bits, 0));
+			ByteBuffer ascii = ByteBuffer.wrap(form.getBytes(Charset
+					.forName("UTF-8")));
+			assertFalse(form, Id.tryParseAscii(ascii, bits, 0));
+			assertEquals(0, ascii.position());
+		}
+		assertArrayEquals(new long[2], bits);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAsUuidInvalid() {
+		Id.asUuid("03d73148-e422-4c57-a25b-bd4be247ef3g");
+	}
+
+	@Test
+	public void testArrays() {
+		Random random = new Random(0);
+		int count = 100;
+		long[] msb = new long[count], lsb = new long[count];
+		long[] ids = new long[2 * count];
+		StringBuilder compact = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			UUID uuid = new UUID(random.nextLong(),
+					(random.nextLong() >>> 2) | (1L << 63));
+			ids[2 * i] = msb[i] = uuid.getMostSignificantBits();
+			ids[2 * i + 1] = lsb[i] = uuid.getLeastSignificantBits();
+			compact.append(Id.asCharArray(uuid));
+		}
+
+		char[] chars = new char[count * IdArrays.CHARS];
+		assertEquals(chars.length,
+				IdArrays.asCharArray(msb, lsb, 0, count, chars, 0));
+		assertEquals(compact.toString(), new String(chars));
+		byte[] ascii = new byte[chars.length];
+		IdArrays.asAsciiArray(ids, 0, count, ascii, 0);
+		assertEquals(compact.toString(),
+				new String(ascii, Charset.forName("US-ASCII")));
+
+		long[] msb2 = new long[count], lsb2 = new long[count];
+		assertEquals(count,
+				IdArrays.parseCharArray(chars, 0, count, msb2, lsb2, 0));
+		assertArrayEquals(msb, msb2);
+		assertArrayEquals(lsb, lsb2);
+		long[] ids2 = new long[2 * count];
+		ByteBuffer buffer = ByteBuffer.wrap(ascii);
+		assertEquals(count, IdArrays.parseAsciiBuffer(buffer, count, ids2, 0));
+		assertFalse(buffer.hasRemaining());
+		assertArrayEquals(ids, ids2);
+
+		byte[] bytes = new byte[count * IdArrays.BYTES];
+		IdArrays.asByteArray(msb, lsb, 0, count, bytes, 0);
+		for (int i = 0; i < count; i++)
+			assertEquals(new UUID(msb[i], lsb[i]), Id.asUuid(ByteBuffer.wrap(
+					bytes, i * IdArrays.BYTES, IdArrays.BYTES)));
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		IdArrays.asByteBuffer(ids, 0, count, direct);
+		direct.flip();
+		assertEquals(ByteBuffer.wrap(bytes), direct);
+		ids2 = new long[2 * count];
+		assertEquals(count, IdArrays.readByteBuffer(direct, count, ids2, 0));
+		assertArrayEquals(ids, ids2);
+	}
+
+	@Test
+	public void testArraysInvalidRecord() {
+		char[] chars = ("A9cxSOQiTFeiW71L4kfvM" + "A9cxSOQiTFeiW71L4kfv+")
+				.toCharArray();
+		long[] ids = new long[4];
+		assertEquals(1, IdArrays.parseCharArray(chars, 0, 2, ids, 0));
+		assertEquals("A9cxSOQiTFeiW71L4kfvM",
+				Id.asString(new UUID(ids[0], ids[1])));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testArraysNonStandardVariant() {
+		IdArrays.asCharArray(new long[] { 0, 0 }, 0, 1, new char[21], 0);
+	}
+
+	@Test
+	public void testValueOf() throws Exception {
+		UUID uuid = UUID.fromString("03d73148-e422-4c57-a25b-bd4be247ef33");
+		Id[] ids = { Id.valueOf(uuid),
+				Id.valueOf(uuid.getMostSignificantBits(),
+						uuid.getLeastSignificantBits()),
+				Id.valueOf(Id.asByteArray(uuid)),
+				Id.valueOf(Id.asString(uuid)),
+				Id.valueOf(uuid.toString()), Id.valueOf(Id.asUri(uuid)) };
+		for (Id id : ids) {
+			assertEquals(ids[0], id);
+			assertEquals(ids[0].hashCode(), id.hashCode());
+			assertEquals(0, ids[0].compareTo(id));
+			assertEquals(uuid, id.toUuid());
+			assertEquals("A9cxSOQiTFeJbvUviR-8z", id.toString());
+			assertArrayEquals(Id.asByteArray(uuid), id.toByteArray());
+			assertEquals(new URI("urn:uuid:" + uuid), id.toUri());
+		}
+		assertFalse(ids[0].equals(Id.valueOf(UUID.randomUUID())));
+
+		URI url = new URI("http://www.example.com/");
+		assertSame(url, Id.valueOf(url).toUri());
+	}
+
+	@Test
+	public void testCompareTo() {
+		Id[] ids = { Id.valueOf(-1, 0), Id.valueOf(0, -1), Id.valueOf(1, 0),
+				Id.valueOf(0, 1), Id.valueOf(Long.MIN_VALUE, 0) };
+		Arrays.sort(ids);
+		assertArrayEquals(new Id[] { Id.valueOf(0, 1), Id.valueOf(0, -1),
+				Id.valueOf(1, 0), Id.valueOf(Long.MIN_VALUE, 0),
+				Id.valueOf(-1, 0) }, ids);
+	}
+
+	@Test
+	public void testNamespace() {
+		Id.Namespace urlNs = new Id.Namespace(
+				UUID.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8"));
+		Id.Name[] names = new Id.Name[100];
+		for (int i = 0; i < names.length; i++) {
+			final String url = "http://www.example.com/" + i;
+			names[i] = new Id.Name() {
+				@Override
+				public void update(MessageDigest digest) {
+					digest.update(url.getBytes(Charset.forName("UTF-8")));
+				}
+			};
+		}
+		long[] msb = new long[names.length], lsb = new long[names.length];
+		urlNs.asUuids(names, 0, names.length, msb, lsb, 0);
+		long[] ids = new long[2 * names.length];
+		urlNs.asUuids(names, 0, names.length, ids, 0);
+		for (int i = 0; i < names.length; i++) {
+			UUID expected = Id.asUuid(urlNs.toUuid(), names[i]);
+			assertEquals(expected, urlNs.asUuid(names[i]));
+			assertEquals(expected, new UUID(msb[i], lsb[i]));
+			assertEquals(expected, new UUID(ids[2 * i], ids[2 * i + 1]));
+		}
+		assertEquals(UUID.fromString("fcde3c85-2270-590f-9e7c-ee003d65e0e2"),
+				urlNs.asUuid(new Id.Name() {
+					@Override
+					public void update(MessageDigest digest) {
+						digest.update("http://www.example.com/"
+								.getBytes(Charset.forName("UTF-8")));
+					}
+				}));
+	}
+
+	@Test
+	public void testNestedName() {
+		final UUID urlNs = UUID.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8");
+		final Id.Name url = new Id.Name() {
+			@Override
+			public void update(MessageDigest digest) {
+				digest.update("http://www.example.com/".getBytes(Charset
+						.forName("UTF-8")));
+			}
+		};
+		UUID uuid = Id.asUuid(urlNs, new Id.Name() {
+			@Override
+			public void update(MessageDigest digest) {
+				// Hashes another name while this name is being hashed
+				url.update(digest);
+				assertEquals(UUID
+						.fromString("fcde3c85-2270-590f-9e7c-ee003d65e0e2"),
+						Id.asUuid(urlNs, url));
+			}
+		});
+		assertEquals(UUID.fromString("fcde3c85-2270-590f-9e7c-ee003d65e0e2"),
+				uuid);
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		IdCache cache = IdCache.forUris(100);
+		for (int round = 0; round < 2; round++)
+			for (int i = 0; i < 200; i++) {
+				URI uri = new URI("http://www.example.com/" + i);
+				assertEquals(Id.asUuid(uri), cache.get(uri).toUuid());
+			}
+		assertEquals(0, cache.hits());
+		assertEquals(400, cache.misses());
+		assertEquals(300, cache.evictions());
+		assertEquals(100, cache.size());
+
+		URI uri = new URI("http://www.example.com/199");
+		assertSame(cache.get(uri), cache.get(uri));
+		assertEquals(2, cache.hits());
+
+		URI urn = new URI("urn:uuid:03d73148-e422-4c57-a25b-bd4be247ef33");
+		assertEquals(Id.asUuid(urn), cache.get(urn).toUuid());
+		assertEquals(400, cache.misses());
+	}
+
+	@Test
+	public void testEncodeAscii() throws Exception {
+		String hello = "/α你好hi🁥 ~";
+		String expected = "%2F%CE%B1%E4%BD%A0%E5%A5%BDhi%F0%9F%81%A5%20~";
+		assertEquals(expected.length(), Id.asciiLength(hello));
+		byte[] bytes = new byte[expected.length() + 1];
+		assertEquals(expected.length(), Id.encodeAscii(hello, bytes, 1));
+		assertEquals(expected, new String(bytes, 1, expected.length(), "US-ASCII"));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(expected.length());
+		Id.encodeAscii(hello, direct);
+		assertFalse(direct.hasRemaining());
+
+		StringBuilder iri = new StringBuilder();
+		Id.encode(hello, iri);
+		assertEquals("%2Fα你好hi🁥%20~", iri.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeLoneSurrogate() {
+		Id.encode("hi\uD83C");
+	}
+
+	@Test
+	public void testDecodeReplacements() throws Exception {
+		StringBuilder out = new StringBuilder();
+		assertEquals(3, Id.decodeCounting("a%zz%C3%A9%E4+%E4%BD", out));
+		assertEquals("a\uFFFDzé \uFFFD\uFFFD", out.toString());
+
+		ByteBuffer bytes = ByteBuffer.allocate(64);
+		assertEquals(0, Id.decodeUtf8("%CE%B1%E4%BD%A0%E5%A5%BDhi%F0%9F%81%A5",
+				bytes));
+		bytes.flip();
+		assertEquals(ByteBuffer.wrap("α你好hi🁥".getBytes("UTF-8")), bytes);
+
+		bytes.clear();
+		assertEquals(2, Id.decodeUtf8("\uD83C%ED%A0%80", bytes));
+		bytes.flip();
+		assertEquals(ByteBuffer.wrap("\uFFFD\uFFFD".getBytes("UTF-8")), bytes);
+	}
+
+	@Test
+	public void testPercentDecoderChunks() throws Exception {
+		String in = "a%zz%C3%A9%E4+%E4%BD%CE%B1\uD83C\uDC65%F0%9F%81%A5x%4";
+		StringBuilder expected = new StringBuilder();
+		int replacements = Id.decodeCounting(in, expected);
+		ByteBuffer expectedBytes = ByteBuffer.allocate(128);
+		Id.decodeUtf8(in, expectedBytes);
+		expectedBytes.flip();
+
+		PercentDecoder decoder = new PercentDecoder();
+		for (int i = 0; i <= in.length(); i++) {
+			decoder.reset();
+			StringBuilder out = new StringBuilder();
+			decoder.decode(in.subSequence(0, i), out);
+			decoder.decode(CharBuffer.wrap(in, i, in.length()), out);
+			decoder.finish(out);
+			assertEquals(expected.toString(), out.toString());
+			assertEquals(replacements, decoder.replacements());
+
+			decoder.reset();
+			ByteBuffer bytes = ByteBuffer.allocate(128);
+			decoder.decode(CharBuffer.wrap(in, 0, i), bytes);
+			decoder.decode(CharBuffer.wrap(in, i, in.length()), bytes);
+			decoder.finish(bytes);
+			bytes.flip();
+			assertEquals(expectedBytes, bytes);
+		}
+	}
+
+	@Test
+	public void testPercentDecoderOverflow() throws Exception {
+		PercentDecoder decoder = new PercentDecoder();
+		CharBuffer in = CharBuffer.wrap("%E4%BD%A0%E5%A5%BD%E4%BD%A0%E5%A5%BD");
+		ByteBuffer out = ByteBuffer.allocate(8), all = ByteBuffer.allocate(16);
+		while (decoder.decode(in, out).isOverflow()) {
+			out.flip();
+			all.put(out);
+			out.clear();
+		}
+		out.flip();
+		all.put(out);
+		out.clear();
+		assertTrue(decoder.finish(out).isUnderflow());
+		out.flip();
+		all.put(out).flip();
+		assertEquals(ByteBuffer.wrap("你好你好".getBytes("UTF-8")), all);
+
+		StringBuilder chars = new StringBuilder();
+		decoder.decode(ByteBuffer.wrap(new byte[] { 'a', (byte) 0xC3,
+				(byte) 0xA9, '%', 'C', '3' }), chars);
+		decoder.decode(ByteBuffer.wrap(new byte[] { '%', 'A', '9' }), chars);
+		decoder.finish(chars);
+		assertEquals("aéé", chars.toString());
+		assertEquals(0, decoder.replacements());
+	}
+
+	@Test
+	public void testPercentDecoderSmallBuffers() throws Exception {
+		// Output buffers smaller than what one unit of input can write:
+		// pending surrogates, 4 byte sequences, replacements and an
+		// unfinished escape at the end
+		String text = "a+%F0%9F%98%80\uD83D\uDE00\uD800\u4F60%C3x%E4%BD%A0%zz\uDC00%E";
+		PercentDecoder decoder = new PercentDecoder();
+		ByteBuffer expected = ByteBuffer.allocate(64);
+		decoder.decode(CharBuffer.wrap(text), expected);
+		decoder.finish(expected);
+		expected.flip();
+		long replacements = decoder.replacements();
+		byte[] bytes = text.getBytes("UTF-8");
+		for (int size = 1; size <= 6; size++) {
+			for (boolean chars : new boolean[] { true, false }) {
+				decoder.reset();
+				CharBuffer charsIn = CharBuffer.wrap(text);
+				ByteBuffer bytesIn = ByteBuffer.wrap(bytes);
+				ByteBuffer out = ByteBuffer.allocate(size), all = ByteBuffer
+						.allocate(64);
+				CoderResult result;
+				do {
+					result = chars ? decoder.decode(charsIn, out) : decoder
+							.decode(bytesIn, out);
+					assertTrue(out.position() > 0 || result.isUnderflow());
+					out.flip();
+					all.put(out);
+					out.clear();
+				} while (result.isOverflow());
+				do {
+					result = decoder.finish(out);
+					out.flip();
+					all.put(out);
+					out.clear();
+				} while (result.isOverflow());
+				all.flip();
+				if (chars) {
+					assertEquals(expected, all);
+					assertEquals(replacements, decoder.replacements());
+				} else {
+					// Raw UTF-8 bytes of the surrogates decode the same way
+					ByteBuffer oneShot = ByteBuffer.allocate(64);
+					PercentDecoder other = new PercentDecoder();
+					other.decode(ByteBuffer.wrap(bytes), oneShot);
+					other.finish(oneShot);
+					oneShot.flip();
+					assertEquals(oneShot, all);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGenerator() throws Exception {
+		final IdGenerator generator = new IdGenerator();
+		long before = System.currentTimeMillis();
+		// More IDs than the sequence allows within a millisecond
+		long[] ids = new long[2 * 10000];
+		generator.next(ids, 0, 10000);
+		Id previous = null;
+		for (int i = 0; i < ids.length; i += 2) {
+			Id id = Id.valueOf(ids[i], ids[i + 1]);
+			UUID uuid = id.toUuid();
+			assertEquals(7, uuid.version());
+			assertEquals(2, uuid.variant());
+			assertTrue(IdGenerator.timestamp(id) >= before);
+			if (previous != null)
+				assertTrue(previous.compareTo(id) < 0);
+			previous = id;
+		}
+		Id next = generator.next();
+		assertTrue(previous.compareTo(next) < 0);
+		assertTrue(IdGenerator.first(IdGenerator.timestamp(next)).compareTo(
+				next) <= 0);
+
+		char[] chars = new char[2 + 3 * IdArrays.CHARS];
+		assertEquals(3 * IdArrays.CHARS, generator.nextCharArray(3, chars, 2));
+		byte[] ascii = new byte[3 * IdArrays.CHARS];
+		generator.nextAsciiArray(3, ascii, 0);
+		ByteBuffer direct = ByteBuffer.allocateDirect(3 * IdArrays.CHARS);
+		generator.nextAsciiBuffer(3, direct);
+		assertFalse(direct.hasRemaining());
+		direct.flip();
+		String text = new String(chars, 2, 3 * IdArrays.CHARS)
+				+ new String(ascii, "US-ASCII")
+				+ Charset.forName("US-ASCII").decode(direct);
+		for (int i = 0; i < 9; i++) {
+			Id id = Id.valueOf(text.substring(i * IdArrays.CHARS, (i + 1)
+					* IdArrays.CHARS));
+			assertEquals(7, id.toUuid().version());
+			assertTrue(next.compareTo(id) < 0);
+			next = id;
+		}
+
+		// IDs from several threads are distinct
+		final long[][] batches = new long[4][];
+		Thread[] threads = new Thread[batches.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int n = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					batches[n] = new long[2 * 5000];
+					generator.next(batches[n], 0, 5000);
+				}
+			};
+			threads[t].start();
+		}
+		Set<Id> distinct = new HashSet<Id>();
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			for (int i = 0; i < batches[t].length; i += 2)
+				distinct.add(Id.valueOf(batches[t][i], batches[t][i + 1]));
+		}
+		assertEquals(4 * 5000, distinct.size());
+	}
+
+	@Test
+	public void testGeneratorsDoNotCollide() {
+		// Two generators on one thread, within the same milliseconds, have
+		// random bits of their own, drawn from SecureRandom in blocks
+		IdGenerator a = new IdGenerator(), b = new IdGenerator();
+		long[] ids = new long[4 * 5000];
+		for (int i = 0; i < ids.length; i += 4) {
+			a.next(ids, i, 1);
+			b.next(ids, i + 2, 1);
+		}
+		Set<Id> distinct = new HashSet<Id>();
+		Set<Long> random = new HashSet<Long>();
+		for (int i = 0; i < ids.length; i += 2) {
+			distinct.add(Id.valueOf(ids[i], ids[i + 1]));
+			random.add(ids[i + 1]);
+		}
+		assertEquals(ids.length / 2, distinct.size());
+		assertEquals(ids.length / 2, random.size());
+	}
+
+	@Test
+	public void testOrdered() {
+		Random random = new Random(3);
+		Id[] ids = new Id[200];
+		for (int i = 0; i < ids.length; i++) {
+			// Standard and other variants, half of them sharing the most
+			// significant bits of the previous ID
+			long m = i % 2 == 1 ? ids[i - 1].getMostSignificantBits()
+					: random.nextLong();
+			long l = random.nextLong();
+			ids[i] = Id.valueOf(m, i % 3 == 0 ? l : l
+					& 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L);
+		}
+		for (Id id : ids) {
+			String ordered = OrderedBase64.asString(id);
+			assertEquals(id.toString().length(), ordered.length());
+			assertEquals(id, OrderedBase64.asId(ordered));
+			assertEquals(ordered, OrderedBase64.fromBinary(id.toString()));
+			assertEquals(id, Id.valueOf(OrderedBase64.toBinary(ordered)));
+			assertEquals(ordered, new String(OrderedBase64.asCharArray(id
+					.toUuid())));
+			byte[] ascii = new byte[22];
+			int length = OrderedBase64.asAsciiArray(id, ascii, 0);
+			assertEquals(ordered, new String(ascii, 0, length,
+					Charset.forName("US-ASCII")));
+			for (Id other : ids)
+				if (other.toString().length() == ordered.length())
+					assertEquals(Integer.signum(id.compareTo(other)), Integer
+							.signum(ordered.compareTo(OrderedBase64
+									.asString(other))));
+		}
+		assertFalse(OrderedBase64.tryParse("not an ordered ID", new long[2],
+				0));
+		assertFalse(OrderedBase64.tryParse("+++++++++++++++++++++",
+				new long[2], 0));
+
+		// Time-ordered IDs sort by time
+		IdGenerator generator = new IdGenerator();
+		String previous = OrderedBase64.asString(IdGenerator.first(System
+				.currentTimeMillis()));
+		for (int i = 0; i < 1000; i++) {
+			String next = OrderedBase64.asString(generator.next());
+			assertTrue(previous.compareTo(next) < 0);
+			previous = next;
+		}
+	}
+
 }
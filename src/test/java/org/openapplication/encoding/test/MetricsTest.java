@@ -0,0 +1,136 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.openapplication.encoding.Binary;
+import org.openapplication.encoding.Id;
+import org.openapplication.encoding.Metrics;
+import org.openapplication.encoding.Metrics.Operation;
+import org.openapplication.encoding.OperationMetrics;
+
+public class MetricsTest {
+
+	@Test
+	public void testCounters() {
+		final List<Operation> recorded = new ArrayList<Operation>();
+		Metrics.Listener listener = new Metrics.Listener() {
+			@Override
+			public void recorded(Operation operation, long volume,
+					long errors, long nanos) {
+				recorded.add(operation);
+			}
+		};
+		Metrics.reset();
+		Metrics.addListener(listener);
+		try {
+			Binary.asString(new byte[] { 1, 2, 3 });
+			assertFalse(Id.tryParse("not an id", new long[2], 0));
+			Id.decode("a%zz");
+		} finally {
+			Metrics.removeListener(listener);
+		}
+		long parses = Metrics.get(Operation.ID_PARSE).getCount();
+		if (Metrics.ENABLED) {
+			assertEquals(1, Metrics.get(Operation.BINARY_ENCODE).getCount());
+			assertEquals(3, Metrics.get(Operation.BINARY_ENCODE).getVolume());
+			assertEquals(1, parses);
+			assertEquals(1, Metrics.get(Operation.ID_PARSE).getErrors());
+			assertEquals(1, Metrics.get(Operation.ID_DECODE).getErrors());
+			assertEquals(3, recorded.size());
+		} else {
+			// Switched off, nothing is counted
+			assertEquals(0, parses);
+			assertTrue(recorded.isEmpty());
+		}
+	}
+
+	@Test
+	public void testLatencies() throws Exception {
+		// The build runs this class a second time with metrics switched on
+		// (see the metrics execution of surefire)
+		if (!Metrics.ENABLED)
+			return;
+		Metrics.reset();
+		// A new thread times exactly its 64th and 128th operations
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 2 * Metrics.SAMPLE_INTERVAL; i++)
+					Binary.asString(new byte[] { 1, 2, 3, 4 });
+			}
+		};
+		thread.start();
+		thread.join();
+		OperationMetrics metrics = Metrics.get(Operation.BINARY_ENCODE);
+		assertEquals(2 * Metrics.SAMPLE_INTERVAL, metrics.getCount());
+		assertEquals(8 * Metrics.SAMPLE_INTERVAL, metrics.getVolume());
+		assertEquals(0, metrics.getErrors());
+		assertEquals(2, metrics.getSamples());
+
+		long[] histogram = metrics.histogram();
+		assertEquals(64, histogram.length);
+		int first = -1, last = -1;
+		long total = 0;
+		for (int b = 0; b < histogram.length; b++)
+			if (histogram[b] != 0) {
+				if (first < 0)
+					first = b;
+				last = b;
+				total += histogram[b];
+			}
+		assertEquals(2, total);
+		// Percentiles are the upper bounds of the buckets they fall into:
+		// of 2 samples, the median is the first and the 99th the second
+		assertEquals(1L << first, metrics.getMedianNanos());
+		assertEquals(1L << last, metrics.get99thPercentileNanos());
+		assertEquals(1L << last, metrics.getMaxNanos());
+		// The mean lies within the buckets
+		assertTrue(metrics.getMeanNanos() >= (1L << first) / 2);
+		assertTrue(metrics.getMeanNanos() < 1L << last);
+
+		Metrics.reset();
+		assertEquals(0, metrics.getCount());
+		assertEquals(0, metrics.getSamples());
+		assertEquals(0, metrics.getMedianNanos());
+		assertArrayEquals(new long[64], metrics.histogram());
+	}
+
+	@Test
+	public void testMBeans() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Metrics.registerMBeans(server);
+		try {
+			ObjectName name = new ObjectName(
+					"org.openapplication.encoding:type=Metrics,name=ID_PARSE");
+			assertEquals("ID_PARSE", server.getAttribute(name, "Operation"));
+			assertEquals(Metrics.get(Operation.ID_PARSE).getCount(),
+					server.getAttribute(name, "Count"));
+		} finally {
+			Metrics.unregisterMBeans(server);
+		}
+	}
+
+}
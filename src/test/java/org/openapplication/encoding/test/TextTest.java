@@ -0,0 +1,368 @@
+/**
+ * Copyright 2012 Erik Isaksson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openapplication.encoding.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.openapplication.encoding.BufferPool;
+import org.openapplication.encoding.Id;
+import org.openapplication.encoding.InternPool;
+import org.openapplication.encoding.Text;
+import org.openapplication.encoding.TextFile;
+
+public class TextTest {
+
+	private static final String TEXT = "abc åäö 你好 🁥 \uD800 end";
+
+	@Test
+	public void testEncodeInChunks() throws Exception {
+		byte[] expected = toBytes(Text.asByteBuffer(TEXT));
+		assertEquals(expected.length, Text.length(TEXT));
+
+		CharBuffer in = CharBuffer.wrap(TEXT);
+		ByteBuffer out = ByteBuffer.allocate(5);
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		CoderResult result;
+		do {
+			result = Text.encode(in, out, true);
+			out.flip();
+			all.write(toBytes(out));
+			out.clear();
+		} while (result.isOverflow());
+		assertArrayEquals(expected, all.toByteArray());
+
+		ByteBuffer bytes = ByteBuffer.wrap(expected);
+		CharBuffer chars = CharBuffer.allocate(3);
+		StringBuilder decoded = new StringBuilder();
+		do {
+			result = Text.decode(bytes, chars, true);
+			chars.flip();
+			decoded.append(chars);
+			chars.clear();
+		} while (result.isOverflow());
+		assertEquals(TEXT.replace('\uD800', '?'), decoded.toString());
+	}
+
+	@Test(timeout = 5000)
+	public void testLargeInChunks() throws Exception {
+		// Only the ASCII that fits into the output is scanned on each call,
+		// so many small calls take as long as one large one
+		char[] text = new char[8 << 20];
+		Arrays.fill(text, 'a');
+		text[text.length - 1] = '\u00E9';
+		CharBuffer in = CharBuffer.wrap(text);
+		ByteBuffer out = ByteBuffer.allocate(4096);
+		ByteBuffer all = ByteBuffer.allocate(text.length + 1);
+		CoderResult result;
+		do {
+			result = Text.encode(in, out, true);
+			out.flip();
+			all.put(out);
+			out.clear();
+		} while (result.isOverflow());
+		assertFalse(all.hasRemaining());
+		all.flip();
+		CharBuffer chars = CharBuffer.allocate(4096);
+		CharBuffer decoded = CharBuffer.allocate(text.length);
+		do {
+			result = Text.decode(all, chars, true);
+			chars.flip();
+			decoded.put(chars);
+			chars.clear();
+		} while (result.isOverflow());
+		assertArrayEquals(text, decoded.array());
+	}
+
+	@Test
+	public void testPool() throws Exception {
+		BufferPool pool = new BufferPool(64, 1);
+		ByteBuffer buffer = Text.asByteBuffer(TEXT, pool);
+		assertTrue(buffer.isDirect());
+		assertArrayEquals(toBytes(Text.asByteBuffer(TEXT)), toBytes(buffer));
+		pool.release(buffer);
+		assertEquals(1, pool.size());
+		assertSame(buffer, pool.acquire());
+		assertEquals(0, pool.size());
+		assertEquals(1000, pool.acquire(1000).capacity());
+	}
+
+	@Test
+	public void testWriteTo() throws Exception {
+		byte[] expected = toBytes(Text.asByteBuffer(TEXT));
+		ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+		direct.put(expected).flip();
+
+		for (Text text : new Text[] { Text.valueOf(TEXT),
+				Text.valueOf(direct),
+				Text.valueOf(ByteBuffer.wrap(expected).asReadOnlyBuffer()) }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			text.writeTo(out);
+			text.writeTo(Channels.newChannel(out));
+			text.writeTo(Channels.newChannel(out), ByteBuffer.allocateDirect(7));
+			byte[] bytes = out.toByteArray();
+			assertEquals(3 * expected.length, bytes.length);
+			for (int i = 0; i < bytes.length; i++)
+				assertEquals(expected[i % expected.length], bytes[i]);
+		}
+
+		Pipe pipe = Pipe.open();
+		long written = Text.writeTo(pipe.sink(), Text.valueOf("one "),
+				Text.valueOf(""), Text.valueOf(direct));
+		assertEquals(4 + expected.length, written);
+		ByteBuffer in = ByteBuffer.allocate((int) written);
+		while (in.hasRemaining())
+			pipe.source().read(in);
+		in.flip();
+		assertEquals("one " + TEXT.replace('\uD800', '?'), Text.asCharBuffer(in)
+				.toString());
+	}
+
+	@Test
+	public void testMemoize() throws Exception {
+		ByteBuffer bytes = Text.asByteBuffer(TEXT);
+		String expected = TEXT.replace('\uD800', '?');
+		for (Text text : new Text[] { Text.memoize(bytes), Text.memoize(TEXT),
+				Text.valueOf(bytes).memoize(), Text.valueOf(TEXT).memoize() }) {
+			assertEquals(bytes.remaining(), text.byteLength());
+			assertEquals(TEXT.length(), text.length());
+			assertEquals(text.toByteBuffer(), bytes);
+			assertSame(text.toString(), text.toString());
+			assertSame(text, text.memoize());
+		}
+		assertEquals(expected, Text.memoize(bytes).toString());
+		assertEquals(TEXT, Text.memoize(TEXT).toString());
+
+		// Reading a returned buffer leaves the memoized one as it was
+		Text text = Text.memoize(TEXT);
+		text.toByteBuffer().position(3);
+		assertEquals(bytes, text.toByteBuffer());
+	}
+
+	@Test
+	public void testAsciiFastPath() throws Exception {
+		Random random = new Random(0);
+		String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789";
+		for (int n = 0; n < 200; n++) {
+			StringBuilder builder = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int i = 0; i < length; i++)
+				builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			if (random.nextBoolean())
+				builder.insert(random.nextInt(length + 1), "é你🁥");
+			String string = builder.toString();
+			byte[] expected = string.getBytes("UTF-8");
+
+			ByteBuffer heap = Text.asByteBuffer(string);
+			assertEquals(expected.length, heap.capacity());
+			assertArrayEquals(expected, toBytes(heap));
+			char[] chars = ("xx" + string).toCharArray();
+			assertArrayEquals(expected, toBytes(Text.asByteBuffer(CharBuffer
+					.wrap(chars, 2, string.length()).slice())));
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(expected.length + 3);
+			direct.position(3);
+			direct.put(expected).position(3);
+			assertEquals(string, Text.asCharBuffer(direct).toString());
+			assertFalse(direct.hasRemaining());
+			byte[] padded = new byte[expected.length + 5];
+			System.arraycopy(expected, 0, padded, 5, expected.length);
+			assertEquals(string, Text.asCharBuffer(ByteBuffer.wrap(padded, 5,
+					expected.length).slice()).toString());
+		}
+	}
+
+	@Test
+	public void testValueSemantics() throws Exception {
+		Random random = new Random(0);
+		String alphabet = "az\u00E9\u07FF\u0800\uD7FF\uE000\uFFFF\uD800\uDFFF";
+		String[] strings = new String[300];
+		for (int n = 0; n < strings.length; n++) {
+			StringBuilder builder = new StringBuilder();
+			int length = random.nextInt(6);
+			for (int i = 0; i < length; i++)
+				builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			strings[n] = builder.toString();
+		}
+		for (String x : strings) {
+			byte[] bytes = toBytes(Text.asByteBuffer(x));
+			Text[] texts = { Text.valueOf(x),
+					Text.valueOf(CharBuffer.wrap(x.toCharArray())),
+					Text.valueOf(ByteBuffer.wrap(bytes)), Text.memoize(x),
+					Text.memoize(ByteBuffer.wrap(bytes)) };
+			for (Text a : texts) {
+				assertEquals(Arrays.hashCode(toUnsigned(bytes)), a.hashCode());
+				for (Text b : texts) {
+					assertEquals(a, b);
+					assertEquals(0, a.compareTo(b));
+				}
+			}
+			for (String y : strings) {
+				byte[] other = toBytes(Text.asByteBuffer(y));
+				int expected = Integer.signum(compareUnsigned(bytes, other));
+				assertEquals(expected, Integer.signum(Text.valueOf(x)
+						.compareTo(Text.valueOf(ByteBuffer.wrap(other)))));
+				assertEquals(expected, Integer.signum(Text.memoize(
+						ByteBuffer.wrap(bytes)).compareTo(Text.valueOf(y))));
+				assertEquals(expected == 0, Text.valueOf(x).equals(
+						Text.valueOf(ByteBuffer.wrap(other))));
+			}
+		}
+		// Code point order, unlike String.compareTo
+		assertTrue(Text.valueOf("\uFFFF").compareTo(Text.valueOf("\uD83C\uDC65")) < 0);
+	}
+
+	private static int[] toUnsigned(byte[] bytes) {
+		int[] values = new int[bytes.length];
+		for (int i = 0; i < bytes.length; i++)
+			values[i] = bytes[i] & 0xFF;
+		return values;
+	}
+
+	private static int compareUnsigned(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++)
+			if (a[i] != b[i])
+				return (a[i] & 0xFF) - (b[i] & 0xFF);
+		return a.length - b.length;
+	}
+
+	@Test
+	public void testTextFile() throws Exception {
+		String content = "first line\r\nåäö 你好\n\nlonger line with 🁥 in it\nlast";
+		byte[] bytes = content.getBytes("UTF-8");
+		File file = File.createTempFile("text", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(bytes);
+			out.close();
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				List<String> expected = Arrays.asList("first line",
+						"åäö 你好", "", "longer line with 🁥 in it", "last");
+				// Small regions, so that slices cross region boundaries
+				for (int regionSize : new int[] { 2, 5, 8, 64, 1 << 20 }) {
+					TextFile text = new TextFile(in.getChannel(), 0,
+							bytes.length, regionSize);
+					List<String> lines = new ArrayList<String>();
+					for (Text line : text.lines())
+						lines.add(line.toString());
+					assertEquals(expected, lines);
+					assertEquals(content, text.slice(0, bytes.length)
+							.toString());
+					assertEquals(Text.valueOf("你好"), text.slice(19, 6));
+					assertEquals(-1, text.indexOf((byte) '#', 0));
+					assertEquals(bytes.length - 5, text.indexOf((byte) '\n',
+							bytes.length - 20));
+
+					List<String> records = new ArrayList<String>();
+					for (Text record : text.records((byte) ' '))
+						records.add(record.toString());
+					assertEquals(Arrays.asList(content.split(" ")), records);
+				}
+				TextFile text = new TextFile(in.getChannel(), 6, 4);
+				assertEquals("line", text.slice(0, 4).toString());
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testInternPool() throws Exception {
+		InternPool pool = new InternPool(1024);
+		Text text = pool.intern("tag åäö");
+		assertSame(text, pool.intern("tag åäö"));
+		assertSame(text, pool.intern(Text.asByteBuffer("tag åäö")));
+		assertSame(text, pool.intern(Text.valueOf(new StringBuilder("tag åäö"))));
+		assertEquals("tag åäö", text.toString());
+
+		ByteBuffer buffer = Text.asByteBuffer("other");
+		Text other = pool.intern(buffer);
+		buffer.put(0, (byte) 'x');
+		assertEquals("other", other.toString());
+		assertSame(other, pool.intern("other"));
+
+		Id id = pool.intern(1, 2);
+		assertSame(id, pool.intern(Id.valueOf(1, 2)));
+		assertSame(id, pool.intern(new UUID(1, 2)));
+		assertNotSame(id, pool.intern(2, 1));
+
+		assertEquals(10, pool.lookups());
+		assertEquals(6, pool.hits());
+		assertEquals(0.6, pool.dedupRatio(), 1e-9);
+		pool.clear();
+		assertEquals(0, pool.lookups());
+		assertNotSame(id, pool.intern(1, 2));
+	}
+
+	@Test
+	public void testInternPoolThreads() throws Exception {
+		// Threads that intern the same few texts see only complete values,
+		// and every lookup is counted once
+		final InternPool pool = new InternPool(16);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							String text = "text " + (i % 50);
+							Text interned = pool.intern(text);
+							assertEquals(text, interned.toString());
+							assertEquals(text.length(), interned.length());
+						}
+					} catch (Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(new ArrayList<Throwable>(), failures);
+		assertEquals(4 * 20000, pool.lookups());
+		assertTrue(pool.hits() > 0 && pool.hits() < pool.lookups());
+	}
+
+	private static byte[] toBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+}